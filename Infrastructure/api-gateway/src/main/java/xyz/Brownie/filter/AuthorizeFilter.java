@@ -27,6 +27,11 @@ public class AuthorizeFilter implements GlobalFilter, Ordered {
         //1.获取请求对象和响应对象
         ServerHttpRequest request = exchange.getRequest();
         ServerHttpResponse response = exchange.getResponse();
+        //内部接口只给服务之间直接调用,从网关进来一律拒绝
+        if(request.getURI().getPath().contains("topic/adjust-comments")){//批量调整评论数
+            response.setStatusCode(HttpStatus.FORBIDDEN);
+            return response.setComplete();
+        }
         //2.判断当前的请求是否为登录，如果是，直接放行
         //user系
         if(request.getURI().getPath().contains("user/login")){//登录
@@ -69,11 +74,20 @@ public class AuthorizeFilter implements GlobalFilter, Ordered {
         if(request.getURI().getPath().contains("topic/getTopImg")){//获取图片
             return chain.filter(exchange);
         }
+        if(request.getURI().getPath().contains("topic/trending")){//热度榜
+            return chain.filter(exchange);
+        }
+        if(request.getURI().getPath().contains("topic/search")){//关键词搜索
+            return chain.filter(exchange);
+        }
 
         //评论系
         if(request.getURI().getPath().contains("comments/commentsList")){//热点资讯
             return chain.filter(exchange);
         }
+        if(request.getURI().getPath().contains("comments/replies")){//展开子评论
+            return chain.filter(exchange);
+        }
         //资源系
         if(request.getURI().getPath().contains("resource")){//资源
                 return chain.filter(exchange);
@@ -13,4 +13,7 @@ public class TopicDto {
     private String isTime;
     //分辨是一天,一周,还是一个月
     private String withTime;
+    //游标分页: 上一页返回的nextCursor,第一页为空
+    private String cursor;
+    private Integer pageSize;
 }
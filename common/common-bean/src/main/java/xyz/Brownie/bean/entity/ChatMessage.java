@@ -0,0 +1,65 @@
+package xyz.Brownie.bean.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+
+/**
+ * 
+ * @TableName chat_message
+ */
+@TableName(value ="chat_message")
+@Data
+public class ChatMessage {
+    /**
+     * 消息ID(聊天服务生成)
+     */
+    @TableId(type = IdType.INPUT)
+    private String id;
+
+    /**
+     * 会话键(两个账号排序后拼接)
+     */
+    private String conversationKey;
+
+    /**
+     * 发送者账号
+     */
+    private String fromAccount;
+
+    /**
+     * 发送者昵称
+     */
+    private String fromName;
+
+    /**
+     * 接收者账号
+     */
+    private String toAccount;
+
+    /**
+     * 接收者昵称
+     */
+    private String toName;
+
+    /**
+     * 消息内容
+     */
+    private String text;
+
+    /**
+     * 发送者头像
+     */
+    private String avatar;
+
+    /**
+     * 发送时间(毫秒时间戳)
+     */
+    private Long sendTime;
+
+    /**
+     * 是否已送达(1已送达,0未送达)
+     */
+    private Integer delivered;
+}
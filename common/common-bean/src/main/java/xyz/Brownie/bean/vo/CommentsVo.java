@@ -60,7 +60,13 @@ public class CommentsVo {
     // 评论人头像
     private String userAvatar;
 
-    // 子评论List集合
+    // 子评论List集合,列表里只带前几条
     private List<CommentsVo> children;
 
+    // 子评论总数
+    private Long replyCount;
+
+    // 展开更多子评论时传给/comments/replies/{rootId}的游标,没有更多时为null
+    private String repliesCursor;
+
 }
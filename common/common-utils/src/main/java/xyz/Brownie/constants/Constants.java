@@ -19,4 +19,16 @@ public final class Constants {
      * - A拉黑了B，B无法关注A或给A发送消息
      */
     public static final int FOLLOWS_STATUS_TWO = 2;
+
+    /**
+     * 帖子评论数的待同步增量
+     * - Redis Hash，field为帖子id，value为尚未写入topic.comments的增量
+     */
+    public static final String TOPIC_COMMENTS_COUNT_KEY = "topic:comments:count";
+
+    /**
+     * 用户资料修改通知
+     * - Redis频道，消息为用户id，各模块的UserProfileCache收到后清掉该用户
+     */
+    public static final String USER_PROFILE_EVICT_CHANNEL = "user:profile:evict";
 }
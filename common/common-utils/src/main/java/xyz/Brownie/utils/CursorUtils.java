@@ -0,0 +1,44 @@
+package xyz.Brownie.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 游标分页的游标编解码,把上一页最后一条的排序值拼起来做成不透明字符串
+ */
+public class CursorUtils {
+
+    private static final String SEPARATOR = ",";
+
+    private CursorUtils() {
+    }
+
+    public static String encode(Object... values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(SEPARATOR);
+            }
+            sb.append(values[i] == null ? "" : values[i]);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解码成long数组,游标为空返回null,格式不对或个数不符抛IllegalArgumentException
+     */
+    public static long[] decode(String cursor, int size) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(SEPARATOR, -1);
+        if (parts.length != size) {
+            throw new IllegalArgumentException("游标格式错误");
+        }
+        long[] values = new long[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = Long.parseLong(parts[i]);
+        }
+        return values;
+    }
+}
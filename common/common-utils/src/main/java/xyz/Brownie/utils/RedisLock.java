@@ -0,0 +1,59 @@
+package xyz.Brownie.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis分布式锁,多实例部署时让定时任务同一时刻只在一个实例上执行
+ * - 加锁用SET NX PX,值是每次加锁生成的随机串
+ * - 释放时用Lua比对值再删除,锁过期后被别的实例拿到也不会被误删
+ * - 持有方挂掉时锁在leaseMillis后自动过期,租期要比任务最长耗时留足余量
+ */
+@Component
+public class RedisLock {
+    private static final Logger log = LoggerFactory.getLogger(RedisLock.class);
+
+    private static final String LOCK_KEY = "lock:";
+
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then "
+                    + "return redis.call('DEL', KEYS[1]) "
+                    + "end "
+                    + "return 0", Long.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public RedisLock(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 拿到锁才执行task,执行完释放;锁被其它实例持有时直接跳过
+     *
+     * @param name        锁名,实际key为lock:name
+     * @param leaseMillis 锁的租期
+     * @return task是否执行了
+     */
+    public boolean runExclusively(String name, long leaseMillis, Runnable task) {
+        String key = LOCK_KEY + name;
+        String token = UUID.randomUUID().toString();
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(key, token, leaseMillis, TimeUnit.MILLISECONDS);
+        if (!Boolean.TRUE.equals(locked)) {
+            log.debug("锁{}被其它实例持有,跳过本次执行", key);
+            return false;
+        }
+        try {
+            task.run();
+            return true;
+        } finally {
+            stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(key), token);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package xyz.Brownie.utils;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 用户昵称和头像的本机缓存,供各模块拼装作者信息用
+ * - 数量有上限,写入后一段时间过期
+ * - 快过期前被访问会在后台刷新(refresh-ahead),热点用户不会因过期而阻塞请求
+ * - 一次请求里的用户id先去重再批量加载,同一用户只查一次
+ * - 用户修改资料时module-user发布到USER_PROFILE_EVICT_CHANNEL,各实例收到后清掉对应缓存
+ */
+public class UserProfileCache implements MessageListener {
+    private static final Logger log = LoggerFactory.getLogger(UserProfileCache.class);
+
+    private static final long MAX_SIZE = 50_000;
+    private static final long EXPIRE_MINUTES = 30;
+    private static final long REFRESH_MINUTES = 5;
+
+    private final LoadingCache<Long, Profile> cache;
+
+    /**
+     * @param loader 按用户id批量查询资料,查不到的id不放进返回结果
+     */
+    public UserProfileCache(Function<Collection<Long>, Map<Long, Profile>> loader) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(MAX_SIZE)
+                .expireAfterWrite(EXPIRE_MINUTES, TimeUnit.MINUTES)
+                .refreshAfterWrite(REFRESH_MINUTES, TimeUnit.MINUTES)
+                .recordStats()
+                .build(new CacheLoader<Long, Profile>() {
+                    @Override
+                    public Profile load(Long userId) {
+                        return loader.apply(Collections.singletonList(userId)).get(userId);
+                    }
+
+                    @Override
+                    public Map<Long, Profile> loadAll(Iterable<? extends Long> userIds) {
+                        List<Long> ids = new ArrayList<>();
+                        userIds.forEach(ids::add);
+                        return loader.apply(ids);
+                    }
+                });
+    }
+
+    public Profile get(Long userId) {
+        if (userId == null) {
+            return null;
+        }
+        return cache.get(userId);
+    }
+
+    /**
+     * 批量取资料,未缓存的用户一次性加载;null和小于0的id(如-1表示没有回复对象)会被忽略
+     */
+    public Map<Long, Profile> getAll(Collection<Long> userIds) {
+        Set<Long> ids = new HashSet<>();
+        for (Long userId : userIds) {
+            if (userId != null && userId >= 0) {
+                ids.add(userId);
+            }
+        }
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return cache.getAll(ids);
+    }
+
+    public void invalidate(Long userId) {
+        cache.invalidate(userId);
+    }
+
+    /**
+     * 命中率等统计,用来评估缓存大小
+     */
+    public Map<String, Object> stats() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", cache.estimatedSize());
+        result.put("hitRate", stats.hitRate());
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("loadSuccessCount", stats.loadSuccessCount());
+        result.put("loadFailureCount", stats.loadFailureCount());
+        result.put("averageLoadPenaltyMs", stats.averageLoadPenalty() / 1_000_000d);
+        result.put("evictionCount", stats.evictionCount());
+        return result;
+    }
+
+    // 收到module-user的资料修改通知
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            invalidate(Long.parseLong(body));
+        } catch (NumberFormatException e) {
+            log.warn("忽略无效的用户资料清除消息: {}", body);
+        }
+    }
+
+    /**
+     * 缓存的用户资料,只有昵称和头像
+     */
+    public static class Profile implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final String avatar;
+
+        public Profile(String name, String avatar) {
+            this.name = name;
+            this.avatar = avatar;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getAvatar() {
+            return avatar;
+        }
+    }
+}
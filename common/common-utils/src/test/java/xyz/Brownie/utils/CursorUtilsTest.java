@@ -0,0 +1,61 @@
+package xyz.Brownie.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CursorUtilsTest {
+
+    @Test
+    void encodeThenDecodeRoundTrips() {
+        String cursor = CursorUtils.encode(1700000000123L, 42L);
+        assertArrayEquals(new long[]{1700000000123L, 42L}, CursorUtils.decode(cursor, 2));
+    }
+
+    @Test
+    void negativeAndZeroValuesRoundTrip() {
+        String cursor = CursorUtils.encode(0L, -7L, Long.MAX_VALUE);
+        assertArrayEquals(new long[]{0L, -7L, Long.MAX_VALUE}, CursorUtils.decode(cursor, 3));
+    }
+
+    @Test
+    void cursorIsUrlSafeWithoutPadding() {
+        String cursor = CursorUtils.encode(1700000000123L, 42L);
+        assertFalse(cursor.contains("="));
+        assertFalse(cursor.contains("+"));
+        assertFalse(cursor.contains("/"));
+    }
+
+    @Test
+    void emptyCursorMeansFirstPage() {
+        assertNull(CursorUtils.decode(null, 2));
+        assertNull(CursorUtils.decode("", 2));
+    }
+
+    @Test
+    void wrongNumberOfValuesIsRejected() {
+        String cursor = CursorUtils.encode(1L, 2L, 3L);
+        assertThrows(IllegalArgumentException.class, () -> CursorUtils.decode(cursor, 2));
+    }
+
+    @Test
+    void nullValueIsRejectedOnDecode() {
+        String cursor = CursorUtils.encode(1L, null);
+        assertThrows(IllegalArgumentException.class, () -> CursorUtils.decode(cursor, 2));
+    }
+
+    @Test
+    void nonNumericValueIsRejected() {
+        String cursor = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString("abc,1".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IllegalArgumentException.class, () -> CursorUtils.decode(cursor, 2));
+    }
+
+    @Test
+    void invalidBase64IsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> CursorUtils.decode("not base64!", 2));
+    }
+}
@@ -0,0 +1,70 @@
+package xyz.Brownie.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class RedisLockTest {
+
+    private StringRedisTemplate stringRedisTemplate;
+    private ValueOperations<String, String> valueOps;
+    private RedisLock redisLock;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        valueOps = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOps);
+        redisLock = new RedisLock(stringRedisTemplate);
+    }
+
+    @Test
+    void runsTaskAndReleasesItsOwnLock() {
+        when(valueOps.setIfAbsent(eq("lock:job"), anyString(), eq(1000L), eq(TimeUnit.MILLISECONDS))).thenReturn(true);
+        AtomicInteger runs = new AtomicInteger();
+
+        assertTrue(redisLock.runExclusively("job", 1000L, runs::incrementAndGet));
+        assertEquals(1, runs.get());
+        verifyUnlockedWithSameToken();
+    }
+
+    @Test
+    void skipsTaskWhileAnotherInstanceHoldsTheLock() {
+        when(valueOps.setIfAbsent(anyString(), anyString(), anyLong(), any())).thenReturn(false);
+        AtomicInteger runs = new AtomicInteger();
+
+        assertFalse(redisLock.runExclusively("job", 1000L, runs::incrementAndGet));
+        assertEquals(0, runs.get());
+        verify(stringRedisTemplate, never()).execute(any(RedisScript.class), anyList(), any());
+    }
+
+    @Test
+    void releasesLockWhenTaskFails() {
+        when(valueOps.setIfAbsent(anyString(), anyString(), anyLong(), any())).thenReturn(true);
+
+        assertThrows(IllegalStateException.class, () -> redisLock.runExclusively("job", 1000L, () -> {
+            throw new IllegalStateException("失败");
+        }));
+        verifyUnlockedWithSameToken();
+    }
+
+    // 释放时带的值必须是加锁时写入的值,否则会删掉别的实例的锁
+    @SuppressWarnings("unchecked")
+    private void verifyUnlockedWithSameToken() {
+        ArgumentCaptor<String> token = ArgumentCaptor.forClass(String.class);
+        verify(valueOps).setIfAbsent(eq("lock:job"), token.capture(), anyLong(), any());
+        verify(stringRedisTemplate).execute(any(RedisScript.class), eq(Collections.singletonList("lock:job")), eq(token.getValue()));
+    }
+}
@@ -0,0 +1,66 @@
+package xyz.Brownie.component;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 放在WebSocket协议处理之后,按连接协商的子协议编解码
+ * - 入站: 文本帧按JSON、二进制帧按CBOR解析成JSONObject交给业务处理
+ * - 出站: CBOR连接上仍以文本帧发出的JSON(错误、应答等少量消息)转成CBOR二进制帧;
+ *   热点消息由ChatFrameEncoder直接按连接的格式编码,不经过这里的转换
+ */
+@Slf4j
+public class ChatFrameCodec extends MessageToMessageCodec<WebSocketFrame, TextWebSocketFrame> {
+
+    private static final ObjectMapper CBOR_MAPPER = new ObjectMapper(new CBORFactory());
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, WebSocketFrame frame, List<Object> out) {
+        try {
+            if (frame instanceof TextWebSocketFrame) {
+                out.add(JSONUtil.parseObj(((TextWebSocketFrame) frame).text()));
+            } else if (frame instanceof BinaryWebSocketFrame) {
+                try (InputStream in = new ByteBufInputStream(frame.content())) {
+                    out.add(new JSONObject(CBOR_MAPPER.readValue(in, Map.class)));
+                }
+            } else {
+                out.add(frame.retain());
+            }
+        } catch (Exception e) {
+            log.error("解析消息失败，连接：{}", ctx.channel().id(), e);
+            // 从管道尾部发出，CBOR连接上也会被转换
+            ctx.channel().writeAndFlush(new TextWebSocketFrame("{\"type\":\"error\",\"message\":\"Invalid message format\"}"));
+        }
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, TextWebSocketFrame frame, List<Object> out) {
+        if (ChatProtocol.of(ctx.channel()) == ChatProtocol.CBOR) {
+            out.add(ChatProtocol.CBOR.frame(ChatFrameEncoder.transcode(ctx.alloc(), frame.content(), ChatProtocol.CBOR)));
+        } else {
+            out.add(frame.retain());
+        }
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+            ChatProtocol.bind(ctx.channel(), ((WebSocketServerProtocolHandler.HandshakeComplete) evt).selectedSubprotocol());
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+}
@@ -0,0 +1,142 @@
+package xyz.Brownie.component;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.Channel;
+import xyz.Brownie.component.NettyWebSocketServer.Message;
+import xyz.Brownie.component.NettyWebSocketServer.Notification;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * 出站消息编码: 用Jackson流式生成器直接把JSON(或CBOR连接上的CBOR)写进池化的ByteBuf,
+ * 不经过JSONObject和String,群发时编码一次,每个接收者retainedDuplicate()共享同一块内存
+ */
+public final class ChatFrameEncoder {
+
+    @FunctionalInterface
+    public interface JsonBody {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    private ChatFrameEncoder() {
+    }
+
+    /**
+     * 按连接协商的格式编码
+     */
+    public static ByteBuf encode(Channel channel, JsonBody body) {
+        return encode(ChatProtocol.of(channel), channel.alloc(), body);
+    }
+
+    /**
+     * 按指定格式编码,返回的ByteBuf由调用方负责释放(写进Channel后由Netty释放)
+     */
+    public static ByteBuf encode(ChatProtocol protocol, ByteBufAllocator allocator, JsonBody body) {
+        ByteBuf buffer = allocator.buffer();
+        try {
+            JsonGenerator generator = protocol.factory().createGenerator((OutputStream) new ByteBufOutputStream(buffer), JsonEncoding.UTF8);
+            body.write(generator);
+            generator.close();
+            return buffer;
+        } catch (IOException e) {
+            buffer.release();
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            buffer.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 单条聊天消息,推给接收者
+     */
+    public static ByteBuf message(Channel channel, Message message) {
+        return encode(channel, generator -> writeMessage(generator, message));
+    }
+
+    /**
+     * 把一段UTF-8 JSON原样转成目标格式,流式复制,不建中间对象
+     */
+    public static ByteBuf transcode(ByteBufAllocator allocator, ByteBuf json, ChatProtocol protocol) {
+        return encode(protocol, allocator, generator -> {
+            try (InputStream in = new ByteBufInputStream(json.duplicate());
+                 JsonParser parser = ChatProtocol.JSON.factory().createParser(in)) {
+                parser.nextToken();
+                generator.copyCurrentStructure(parser);
+            }
+        });
+    }
+
+    /**
+     * 历史消息应答
+     */
+    public static ByteBuf history(Channel channel, List<Message> messages, boolean hasMore) {
+        return encode(channel, generator -> {
+            generator.writeStartObject();
+            generator.writeStringField("type", "history");
+            generator.writeArrayFieldStart("messages");
+            for (Message message : messages) {
+                writeMessage(generator, message);
+            }
+            generator.writeEndArray();
+            generator.writeBooleanField("hasMore", hasMore);
+            generator.writeEndObject();
+        });
+    }
+
+    /**
+     * 新消息提醒,带上通知和消息本身
+     */
+    public static ByteBuf notificationAlert(Channel channel, Notification notification, Message message) {
+        return encode(channel, generator -> {
+            generator.writeStartObject();
+            generator.writeStringField("type", "newNotification");
+            generator.writeFieldName("notification");
+            writeNotification(generator, notification);
+            generator.writeFieldName("message");
+            writeMessage(generator, message);
+            generator.writeEndObject();
+        });
+    }
+
+    public static void writeMessage(JsonGenerator generator, Message message) throws IOException {
+        generator.writeStartObject();
+        writeStringIfPresent(generator, "id", message.getId());
+        writeStringIfPresent(generator, "from", message.getFrom());
+        writeStringIfPresent(generator, "fromName", message.getFromName());
+        writeStringIfPresent(generator, "to", message.getTo());
+        writeStringIfPresent(generator, "toName", message.getToName());
+        writeStringIfPresent(generator, "text", message.getText());
+        generator.writeNumberField("timestamp", message.getTimestamp());
+        generator.writeBooleanField("delivered", message.isDelivered());
+        writeStringIfPresent(generator, "avatar", message.getAvatar());
+        generator.writeEndObject();
+    }
+
+    public static void writeNotification(JsonGenerator generator, Notification notification) throws IOException {
+        generator.writeStartObject();
+        writeStringIfPresent(generator, "id", notification.getId());
+        writeStringIfPresent(generator, "from", notification.getFrom());
+        writeStringIfPresent(generator, "fromName", notification.getFromName());
+        writeStringIfPresent(generator, "text", notification.getText());
+        generator.writeNumberField("timestamp", notification.getTimestamp());
+        generator.writeEndObject();
+    }
+
+    // 和原来Hutool的输出保持一致,null字段不输出
+    public static void writeStringIfPresent(JsonGenerator generator, String name, String value) throws IOException {
+        if (value != null) {
+            generator.writeStringField(name, value);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package xyz.Brownie.component;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.AttributeKey;
+
+/**
+ * 聊天连接的编码格式,握手时由客户端通过Sec-WebSocket-Protocol选择
+ * - chat.json(或不带子协议): 文本帧JSON,网页端默认
+ * - chat.cbor: 二进制帧CBOR,字段和JSON完全一样,移动端解析更省CPU和流量
+ */
+public enum ChatProtocol {
+    JSON("chat.json", new JsonFactory()),
+    CBOR("chat.cbor", new CBORFactory());
+
+    // 服务端支持的子协议,逗号分隔
+    public static final String SUBPROTOCOLS = "chat.json,chat.cbor";
+
+    private static final AttributeKey<ChatProtocol> KEY = AttributeKey.valueOf("chatProtocol");
+
+    private final String subprotocol;
+    private final JsonFactory factory;
+
+    ChatProtocol(String subprotocol, JsonFactory factory) {
+        this.subprotocol = subprotocol;
+        this.factory = factory;
+    }
+
+    public static ChatProtocol of(Channel channel) {
+        ChatProtocol protocol = channel.attr(KEY).get();
+        return protocol == null ? JSON : protocol;
+    }
+
+    /**
+     * 握手完成后记下协商出的子协议,没协商时按JSON处理
+     */
+    public static void bind(Channel channel, String selectedSubprotocol) {
+        channel.attr(KEY).set(CBOR.subprotocol.equals(selectedSubprotocol) ? CBOR : JSON);
+    }
+
+    public JsonFactory factory() {
+        return factory;
+    }
+
+    public WebSocketFrame frame(ByteBuf content) {
+        return this == CBOR ? new BinaryWebSocketFrame(content) : new TextWebSocketFrame(content);
+    }
+}
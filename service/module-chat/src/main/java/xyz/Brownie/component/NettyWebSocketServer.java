@@ -2,9 +2,15 @@ package xyz.Brownie.component;
 
 import cn.hutool.json.JSONArray;
 import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
@@ -12,17 +18,26 @@ import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import xyz.Brownie.component.store.ConversationHistory;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 @Slf4j
 @Component
@@ -30,15 +45,48 @@ public class NettyWebSocketServer {
     private static final int MAX_MESSAGE_LENGTH = 65536;
     private static final int MAX_OFFLINE_MESSAGES = 100;
     private static final int MAX_HISTORY_MESSAGES = 100;
+    private static final int DEFAULT_ONLINE_PAGE_SIZE = 50;
+    private static final int MAX_ONLINE_PAGE_SIZE = 200;
+    // 连接上绑定的账号，断开时直接取，不用遍历在线用户
+    private static final AttributeKey<String> ACCOUNT_KEY = AttributeKey.valueOf("account");
+
+    @Value("${chat.netty.port:9292}")
+    private int port;
+    // Linux上有原生库时用epoll，否则用NIO
+    @Value("${chat.netty.epoll:true}")
+    private boolean epollEnabled;
+    // 0表示Netty默认(CPU核数*2)
+    @Value("${chat.netty.worker-threads:0}")
+    private int workerThreads;
+    @Value("${chat.netty.backlog:1024}")
+    private int backlog;
+    // epoll下开启SO_REUSEPORT，同一端口绑定多个监听，由内核分摊新连接
+    @Value("${chat.netty.reuse-port:false}")
+    private boolean reusePort;
+    @Value("${chat.netty.acceptors:1}")
+    private int acceptors;
+    @Value("${chat.netty.write-buffer-low-water-mark:32768}")
+    private int writeBufferLowWaterMark;
+    @Value("${chat.netty.write-buffer-high-water-mark:65536}")
+    private int writeBufferHighWaterMark;
+    @Value("${chat.netty.pooled-direct-allocator:true}")
+    private boolean pooledDirectAllocator;
+    // 连接和群发编码共用同一个分配器，不另建一套内存池
+    private ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
 
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
-    private Channel channel;
-
-    // 存储用户连接和信息
-    public static final Map<String, UserInfo> userConnections = new ConcurrentHashMap<>();
-    // 存储所有消息记录
-    private static final List<Message> messageStore = new CopyOnWriteArrayList<>();
+    private final List<Channel> serverChannels = new ArrayList<>();
+
+    // 存储用户连接和信息，按账号排序，在线列表按账号游标分页
+    public static final ConcurrentNavigableMap<String, UserInfo> userConnections = new ConcurrentSkipListMap<>();
+    // 在线人数，跳表的size()要遍历，单独计数
+    private static final AtomicInteger onlineCount = new AtomicInteger();
+    // 消息记录，按会话索引，最近的消息在内存，全部落到持久化存储
+    @Autowired
+    private ConversationHistory conversationHistory;
+    @Autowired
+    private PresenceService presenceService;
     // 存储离线消息
     private static final Map<String, List<Message>> offlineMessages = new ConcurrentHashMap<>();
     // 新增：存储用户通知 - 修改为按发送者分组
@@ -78,46 +126,70 @@ public class NettyWebSocketServer {
 
     @PostConstruct
     public void start() throws InterruptedException {
-        bossGroup = new NioEventLoopGroup(1);
-        workerGroup = new NioEventLoopGroup();
+        boolean epoll = epollEnabled && Epoll.isAvailable();
+        // 只有epoll支持SO_REUSEPORT，NIO下只绑定一次
+        int listeners = epoll && reusePort ? Math.max(1, acceptors) : 1;
+        if (epoll) {
+            bossGroup = new EpollEventLoopGroup(listeners);
+            workerGroup = new EpollEventLoopGroup(workerThreads);
+        } else {
+            if (epollEnabled) {
+                log.info("epoll不可用，使用NIO：{}", Epoll.unavailabilityCause() == null ? "" : Epoll.unavailabilityCause().getMessage());
+            }
+            bossGroup = new NioEventLoopGroup(1);
+            workerGroup = new NioEventLoopGroup(workerThreads);
+        }
 
         ServerBootstrap bootstrap = new ServerBootstrap();
         bootstrap.group(bossGroup, workerGroup)
-                .channel(NioServerSocketChannel.class)
+                .channel(epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, backlog)
+                // 大量空闲连接时限制单连接的待发送数据，超过高水位后isWritable()为false
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                        new WriteBufferWaterMark(writeBufferLowWaterMark, writeBufferHighWaterMark))
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel ch) {
                         ChannelPipeline pipeline = ch.pipeline();
                         pipeline.addLast(new HttpServerCodec());
                         pipeline.addLast(new HttpObjectAggregator(MAX_MESSAGE_LENGTH));
-                        pipeline.addLast(new WebSocketServerProtocolHandler("/imserver"));
+                        pipeline.addLast(new WebSocketServerProtocolHandler("/imserver", ChatProtocol.SUBPROTOCOLS));
+                        pipeline.addLast(new ChatFrameCodec());
                         pipeline.addLast(new WebSocketFrameHandler());
                     }
                 });
 
-        channel = bootstrap.bind(9292).sync().channel();
-        log.info("Netty WebSocket 服务启动，端口：9292");
+        if (pooledDirectAllocator) {
+            allocator = PooledByteBufAllocator.DEFAULT;
+            bootstrap.option(ChannelOption.ALLOCATOR, allocator)
+                    .childOption(ChannelOption.ALLOCATOR, allocator);
+        }
+        if (listeners > 1) {
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+
+        for (int i = 0; i < listeners; i++) {
+            serverChannels.add(bootstrap.bind(port).sync().channel());
+        }
+        log.info("Netty WebSocket 服务启动，端口：{}，传输：{}，监听数：{}", port, epoll ? "epoll" : "nio", listeners);
     }
 
     @PreDestroy
     public void stop() {
-        if (channel != null) {
-            channel.close();
-        }
+        serverChannels.forEach(Channel::close);
         bossGroup.shutdownGracefully();
         workerGroup.shutdownGracefully();
         log.info("Netty WebSocket 服务关闭");
     }
 
-    private class WebSocketFrameHandler extends SimpleChannelInboundHandler<TextWebSocketFrame> {
+    // 入站帧已由ChatFrameCodec按协商的格式(JSON/CBOR)解析好
+    class WebSocketFrameHandler extends SimpleChannelInboundHandler<JSONObject> {
         @Override
-        protected void channelRead0(ChannelHandlerContext ctx, TextWebSocketFrame frame) throws Exception {
-            String message = frame.text();
+        protected void channelRead0(ChannelHandlerContext ctx, JSONObject obj) throws Exception {
             try {
-                JSONObject obj = JSONUtil.parseObj(message);
                 processMessage(ctx, obj);
             } catch (Exception e) {
-                log.error("解析消息失败: {}", message, e);
+                log.error("处理消息失败: {}", obj, e);
                 sendErrorResponse(ctx, "Invalid message format");
             }
         }
@@ -141,6 +213,9 @@ public class NettyWebSocketServer {
                 case "message":
                     handleChatMessage(ctx, obj);
                     break;
+                case "getOnlineUsers":
+                    handleOnlineUsersRequest(ctx, obj);
+                    break;
                 case "deleteHistory":
                     handleDeleteHistoryRequest(ctx, obj);
                     break;
@@ -158,24 +233,26 @@ public class NettyWebSocketServer {
                 return;
             }
 
-            // 删除与这两个账户相关的所有消息记录
-            messageStore.removeIf(msg -> 
-                (msg.getFrom().equals(account) && msg.getTo().equals(withAccount)) ||
-                (msg.getFrom().equals(withAccount) && msg.getTo().equals(account))
-            );
-
             // 删除相关的通知
             Map<String, Notification> userNotificationsMap = userNotifications.get(account);
             if (userNotificationsMap != null) {
                 userNotificationsMap.remove(withAccount);
             }
 
-            // 发送成功响应 - 使用sendMessage代替sendSuccessResponse，避免添加Response后缀
-            JSONObject response = new JSONObject();
-            response.put("type", "deleteHistory");
-            response.put("status", "success");
-            response.put("message", "History messages deleted successfully");
-            sendMessage(response.toString(), ctx);
+            // 删除与这两个账户相关的所有消息记录，删完再应答
+            whenDone(ctx, conversationHistory.deleteConversation(account, withAccount), (deleted, error) -> {
+                if (error != null) {
+                    log.error("删除用户[{}]和[{}]的聊天记录失败", account, withAccount, error);
+                    sendErrorResponse(ctx, "Failed to delete history");
+                    return;
+                }
+                // 发送成功响应 - 使用sendMessage代替sendSuccessResponse，避免添加Response后缀
+                JSONObject response = new JSONObject();
+                response.put("type", "deleteHistory");
+                response.put("status", "success");
+                response.put("message", "History messages deleted successfully");
+                sendMessage(response.toString(), ctx);
+            });
         }
 
         private String getAccountFromMessage(JSONObject obj) {
@@ -197,10 +274,20 @@ public class NettyWebSocketServer {
                 return;
             }
 
-            userConnections.put(account, new UserInfo(ctx, username));
+            // 同一连接换了账号注册，先解绑原来的账号
+            String previous = ctx.channel().attr(ACCOUNT_KEY).getAndSet(account);
+            if (previous != null && !previous.equals(account) && removeConnection(previous, ctx)) {
+                publishPresence(previous, "userOffline", null);
+            }
+            // 已在线的账号换了连接(重连)不算上线
+            if (userConnections.put(account, new UserInfo(ctx, username)) == null) {
+                onlineCount.incrementAndGet();
+                publishPresence(account, "userOnline", username);
+            }
             log.info("用户[{}]已连接", account);
 
-            sendOnlineUsersList();
+            // 新连接只拿第一页在线用户，之后靠上线/下线事件增量更新
+            sendOnlineUsersPage(ctx, account, null, DEFAULT_ONLINE_PAGE_SIZE);
             deliverOfflineMessages(account);
             sendSuccessResponse(ctx, "register", "Connection established");
         }
@@ -222,7 +309,6 @@ public class NettyWebSocketServer {
             }
 
             Message message = createMessage(from, to, text, avatar);
-            storeMessage(message);
 
             // 创建并存储通知 - 这将确保接收者能在消息列表中看到消息
             Notification notification = new Notification(
@@ -239,8 +325,13 @@ public class NettyWebSocketServer {
             deliverMessage(message);
             // 发送通知提醒，确保消息列表弹出
             sendNotificationAlert(to, notification);
-
-            sendSuccessResponse(ctx, "message", "Message sent");
+            // 投递之后再落盘，送达状态一起保存；落盘后再应答发送者
+            whenDone(ctx, conversationHistory.append(message), (ignored, error) -> {
+                if (error != null) {
+                    log.error("消息[{}]保存失败", message.getId(), error);
+                }
+                sendSuccessResponse(ctx, "message", "Message sent");
+            });
         }
 
         private Message createMessage(String from, String to, String text, String avatar) {
@@ -265,13 +356,6 @@ public class NettyWebSocketServer {
             return user != null ? user.getUsername() : account;
         }
 
-        private void storeMessage(Message message) {
-            messageStore.add(message);
-            if (messageStore.size() > 1000) {
-                messageStore.remove(0);
-            }
-        }
-
         private void storeNotification(String toAccount, Notification notification) {
             // 获取接收者的通知Map，如果不存在则创建
             Map<String, Notification> userNotificationsMap = userNotifications.computeIfAbsent(
@@ -286,8 +370,8 @@ public class NettyWebSocketServer {
         private void deliverMessage(Message message) {
             UserInfo receiver = userConnections.get(message.getTo());
             if (receiver != null) {
-                JSONObject jsonMessage = convertMessageToJson(message);
-                sendMessage(jsonMessage.toString(), receiver.getCtx());
+                ChannelHandlerContext receiverCtx = receiver.getCtx();
+                sendFrame(ChatFrameEncoder.message(receiverCtx.channel(), message), receiverCtx);
                 message.setDelivered(true);
                 log.debug("消息[{}]已送达用户[{}]", message.getId(), message.getTo());
             } else {
@@ -311,9 +395,15 @@ public class NettyWebSocketServer {
                 if (user != null) {
                     messages.forEach(msg -> {
                         msg.setDelivered(true);
-                        sendMessage(convertMessageToJson(msg).toString(), user.getCtx());
+                        sendFrame(ChatFrameEncoder.message(user.getCtx().channel(), msg), user.getCtx());
                     });
                     log.info("向用户[{}]发送了{}条离线消息", account, messages.size());
+                    // 存储里保存的是离线时的未送达状态,补发后写回
+                    conversationHistory.markDelivered(messages).whenComplete((ignored, error) -> {
+                        if (error != null) {
+                            log.error("用户[{}]的离线消息送达状态保存失败", account, error);
+                        }
+                    });
                 }
             }
             
@@ -335,17 +425,14 @@ public class NettyWebSocketServer {
         private void sendNotificationAlert(String toAccount, Notification notification) {
             UserInfo user = userConnections.get(toAccount);
             if (user != null) {
-                JSONObject alert = new JSONObject();
-                alert.put("type", "newNotification");
-                alert.put("notification", convertNotificationToJson(notification));
                 // 确保消息列表更新 - 新增message对象，包含所有必要信息
-                alert.put("message", convertMessageToJson(createMessage(
-                        notification.getFrom(), 
-                        toAccount, 
+                Message message = createMessage(
+                        notification.getFrom(),
+                        toAccount,
                         notification.getText(),
                         "" // 添加空的avatar参数，因为通知中没有头像信息
-                )));
-                sendMessage(alert.toString(), user.getCtx());
+                );
+                sendFrame(ChatFrameEncoder.notificationAlert(user.getCtx().channel(), notification, message), user.getCtx());
                 log.info("向用户[{}]发送通知提醒", toAccount);
             }
         }
@@ -353,19 +440,52 @@ public class NettyWebSocketServer {
         private void handleHistoryRequest(ChannelHandlerContext ctx, JSONObject obj) {
             String account = obj.getStr("account");
             String withAccount = obj.getStr("withAccount");
-            int limit = obj.getInt("limit", MAX_HISTORY_MESSAGES);
+            int limit = Math.max(1, Math.min(obj.getInt("limit", MAX_HISTORY_MESSAGES), MAX_HISTORY_MESSAGES));
+            // 游标: beforeTs/beforeId往前翻页(新的在前)，afterTs/afterId补拉之后的消息(旧的在前)，都不传取最新一页
+            Long beforeTs = obj.getLong("beforeTs");
+            String beforeId = obj.getStr("beforeId");
+            Long afterTs = obj.getLong("afterTs");
+            String afterId = obj.getStr("afterId");
 
             if (account == null || withAccount == null) {
                 sendErrorResponse(ctx, "Both account and withAccount are required");
                 return;
             }
+            if ((beforeId != null && beforeTs == null) || (afterId != null && afterTs == null)) {
+                sendErrorResponse(ctx, "beforeId/afterId must be sent with beforeTs/afterTs");
+                return;
+            }
 
-            List<Message> history = getHistoryMessages(account, withAccount, limit);
-            JSONObject response = new JSONObject();
-            response.put("type", "history");
-            response.put("messages", convertMessagesToJson(history));
+            CompletableFuture<List<Message>> history;
+            if (afterTs != null) {
+                history = conversationHistory.after(account, withAccount, afterTs, afterId, limit);
+            } else if (beforeTs != null) {
+                history = conversationHistory.before(account, withAccount, beforeTs, beforeId, limit);
+            } else {
+                history = conversationHistory.latest(account, withAccount, limit);
+            }
+            whenDone(ctx, history, (messages, error) -> {
+                if (error != null) {
+                    log.error("查询用户[{}]和[{}]的聊天记录失败", account, withAccount, error);
+                    sendErrorResponse(ctx, "Failed to load history");
+                    return;
+                }
+                // 取满一页说明可能还有，客户端用最后一条的timestamp和id作为下一页的游标
+                sendFrame(ChatFrameEncoder.history(ctx.channel(), messages, messages.size() == limit), ctx);
+            });
+        }
 
-            sendMessage(response.toString(), ctx);
+        /**
+         * 存储、查关注关系等异步操作完成后回到连接所在的事件循环上处理结果，已经完成的(缓存命中)直接处理
+         */
+        private <T> void whenDone(ChannelHandlerContext ctx, CompletableFuture<T> future, BiConsumer<T, Throwable> action) {
+            future.whenComplete((result, error) -> {
+                if (ctx.executor().inEventLoop()) {
+                    action.accept(result, error);
+                } else {
+                    ctx.executor().execute(() -> action.accept(result, error));
+                }
+            });
         }
 
         private void handleNotificationsRequest(ChannelHandlerContext ctx, String account) {
@@ -393,35 +513,6 @@ public class NettyWebSocketServer {
             }
         }
 
-        private List<Message> getHistoryMessages(String account1, String account2, int limit) {
-            return messageStore.stream()
-                    .filter(msg -> (msg.getFrom().equals(account1) && msg.getTo().equals(account2)) ||
-                            (msg.getFrom().equals(account2) && msg.getTo().equals(account1)))
-                    .sorted(Comparator.comparingLong(Message::getTimestamp).reversed())
-                    .limit(limit)
-                    .collect(Collectors.toList());
-        }
-
-        private JSONObject convertMessageToJson(Message message) {
-            JSONObject json = new JSONObject();
-            json.put("id", message.getId());
-            json.put("from", message.getFrom());
-            json.put("fromName", message.getFromName());
-            json.put("to", message.getTo());
-            json.put("toName", message.getToName());
-            json.put("text", message.getText());
-            json.put("timestamp", message.getTimestamp());
-            json.put("delivered", message.isDelivered());
-            json.put("avatar", message.getAvatar()); // 添加头像字段
-            return json;
-        }
-
-        private JSONArray convertMessagesToJson(List<Message> messages) {
-            JSONArray array = new JSONArray();
-            messages.forEach(msg -> array.add(convertMessageToJson(msg)));
-            return array;
-        }
-
         private JSONObject convertNotificationToJson(Notification notification) {
             JSONObject json = new JSONObject();
             json.put("id", notification.getId());
@@ -438,20 +529,89 @@ public class NettyWebSocketServer {
             return array;
         }
 
-        private void sendOnlineUsersList() {
-            JSONObject response = new JSONObject();
-            response.put("type", "onlineUsers");
-
-            JSONArray users = new JSONArray();
-            userConnections.forEach((account, userInfo) -> {
-                JSONObject user = new JSONObject();
-                user.put("account", account);
-                user.put("name", userInfo.getUsername());
-                users.add(user);
+        private void handleOnlineUsersRequest(ChannelHandlerContext ctx, JSONObject obj) {
+            String viewer = ctx.channel().attr(ACCOUNT_KEY).get();
+            if (viewer == null) {
+                viewer = getAccountFromMessage(obj);
+            }
+            int limit = Math.max(1, Math.min(obj.getInt("limit", DEFAULT_ONLINE_PAGE_SIZE), MAX_ONLINE_PAGE_SIZE));
+            sendOnlineUsersPage(ctx, viewer, obj.getStr("cursor"), limit);
+        }
+
+        private void sendOnlineUsersPage(ChannelHandlerContext ctx, String viewer, String cursor, int limit) {
+            whenDone(ctx, presenceService.page(viewer, cursor, limit, userConnections), (accounts, error) -> {
+                if (error != null) {
+                    log.error("查询用户[{}]可见的在线用户失败", viewer, error);
+                    sendErrorResponse(ctx, "Failed to load online users");
+                    return;
+                }
+                sendOnlineUsersPage(ctx, accounts, limit);
             });
-            response.put("users", users);
+        }
 
-            broadcastMessage(response.toString());
+        private void sendOnlineUsersPage(ChannelHandlerContext ctx, List<String> accounts, int limit) {
+            sendFrame(ChatFrameEncoder.encode(ctx.channel(), generator -> {
+                generator.writeStartObject();
+                generator.writeStringField("type", "onlineUsers");
+                generator.writeArrayFieldStart("users");
+                for (String account : accounts) {
+                    UserInfo userInfo = userConnections.get(account);
+                    if (userInfo != null) {
+                        generator.writeStartObject();
+                        generator.writeStringField("account", account);
+                        ChatFrameEncoder.writeStringIfPresent(generator, "name", userInfo.getUsername());
+                        generator.writeEndObject();
+                    }
+                }
+                generator.writeEndArray();
+                generator.writeNumberField("onlineCount", onlineCount.get());
+                // 取满一页时带上下一页的游标
+                if (accounts.size() == limit) {
+                    generator.writeStringField("nextCursor", accounts.get(accounts.size() - 1));
+                }
+                generator.writeEndObject();
+            }), ctx);
+        }
+
+        /**
+         * 上线/下线只把这一个用户的变化发给能看到他的在线用户;
+         * 关注关系可能要查库,查完再发,发之前核对状态没有又变回去,免得先上线后下线的事件乱序
+         */
+        private void publishPresence(String account, String type, String username) {
+            boolean online = "userOnline".equals(type);
+            presenceService.audience(account, userConnections).whenComplete((audience, error) -> {
+                if (error != null) {
+                    log.error("查询用户[{}]的在线状态接收者失败", account, error);
+                } else if (userConnections.containsKey(account) == online) {
+                    publishPresence(account, type, username, audience);
+                }
+            });
+        }
+
+        private void publishPresence(String account, String type, String username, List<String> audience) {
+            if (audience.isEmpty()) {
+                return;
+            }
+            // 每种格式只编码一次，同格式的接收者共享同一块内存
+            Map<ChatProtocol, ByteBuf> encoded = new EnumMap<>(ChatProtocol.class);
+            try {
+                for (String target : audience) {
+                    UserInfo user = userConnections.get(target);
+                    if (user != null) {
+                        ByteBuf event = encoded.computeIfAbsent(ChatProtocol.of(user.getCtx().channel()),
+                                protocol -> ChatFrameEncoder.encode(protocol, allocator, generator -> {
+                                    generator.writeStartObject();
+                                    generator.writeStringField("type", type);
+                                    generator.writeStringField("account", account);
+                                    ChatFrameEncoder.writeStringIfPresent(generator, "name", username);
+                                    generator.writeEndObject();
+                                }));
+                        sendFrame(event.retainedDuplicate(), user.getCtx());
+                    }
+                }
+            } finally {
+                encoded.values().forEach(ByteBuf::release);
+            }
         }
 
         private void sendErrorResponse(ChannelHandlerContext ctx, String error) {
@@ -475,23 +635,29 @@ public class NettyWebSocketServer {
 
         @Override
         public void channelInactive(ChannelHandlerContext ctx) throws Exception {
-            String disconnectedUser = null;
-            for (Map.Entry<String, UserInfo> entry : userConnections.entrySet()) {
-                if (entry.getValue().getCtx().equals(ctx)) {
-                    disconnectedUser = entry.getKey();
-                    break;
-                }
-            }
+            String disconnectedUser = ctx.channel().attr(ACCOUNT_KEY).get();
 
-            if (disconnectedUser != null) {
-                userConnections.remove(disconnectedUser);
-                log.info("用户[{}]断开连接，当前在线用户数: {}", disconnectedUser, userConnections.size());
-                sendOnlineUsersList();
+            if (disconnectedUser != null && removeConnection(disconnectedUser, ctx)) {
+                log.info("用户[{}]断开连接，当前在线用户数: {}", disconnectedUser, onlineCount.get());
+                publishPresence(disconnectedUser, "userOffline", null);
             }
 
             super.channelInactive(ctx);
         }
 
+        /**
+         * 只有账号当前登记的还是这个连接时才移除，旧连接晚断开不会把重连后的新连接踢掉
+         */
+        private boolean removeConnection(String account, ChannelHandlerContext ctx) {
+            UserInfo current = userConnections.get(account);
+            if (current != null && current.getCtx().channel() == ctx.channel()
+                    && userConnections.remove(account, current)) {
+                onlineCount.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
         @Override
         public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
             log.error("WebSocket处理异常", cause);
@@ -499,17 +665,33 @@ public class NettyWebSocketServer {
         }
     }
 
-    private void sendMessage(String message, ChannelHandlerContext ctx) {
+    /**
+     * 发送编码好的帧内容，不管是否发出去都会释放content
+     */
+    private void sendFrame(ByteBuf content, ChannelHandlerContext ctx) {
         try {
             if (ctx != null && ctx.channel().isActive()) {
-                ctx.writeAndFlush(new TextWebSocketFrame(message));
+                ctx.writeAndFlush(ChatProtocol.of(ctx.channel()).frame(content));
+                return;
             }
         } catch (Exception e) {
             log.error("发送消息失败", e);
+            // 组帧或写出时抛异常,content可能还没交给Netty,池化内存不能漏掉;已被释放过的不再释放
+            if (content.refCnt() > 0) {
+                ReferenceCountUtil.safeRelease(content);
+            }
+            return;
         }
+        content.release();
     }
 
-    private void broadcastMessage(String message) {
-        userConnections.values().forEach(user -> sendMessage(message, user.getCtx()));
+    private void sendMessage(String message, ChannelHandlerContext ctx) {
+        try {
+            if (ctx != null && ctx.channel().isActive()) {
+                ctx.writeAndFlush(new TextWebSocketFrame(message));
+            }
+        } catch (Exception e) {
+            log.error("发送消息失败", e);
+        }
     }
 }
\ No newline at end of file
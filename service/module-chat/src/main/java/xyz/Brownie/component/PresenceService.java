@@ -0,0 +1,145 @@
+package xyz.Brownie.component;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import xyz.Brownie.mapper.UserFollowsMapper;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 在线状态: 决定上线/下线事件发给谁,以及分页列出某个用户能看到的在线用户
+ * - chat.presence.scope=all: 所有在线用户互相可见(默认)
+ * - chat.presence.scope=follows: 只通知关注了自己的在线用户,在线列表只列自己关注的人;
+ *   关注关系按账号查user_follows,本机缓存几分钟;查库在单独的线程池里做,不占Netty事件循环,
+ *   结果以CompletableFuture返回,缓存命中时是已完成的future
+ */
+@Slf4j
+@Component
+public class PresenceService {
+
+    private static final String SCOPE_FOLLOWS = "follows";
+    private static final long FOLLOW_CACHE_SIZE = 50_000;
+    private static final long FOLLOW_CACHE_MINUTES = 5;
+
+    @Value("${chat.presence.scope:all}")
+    private String scope;
+
+    @Autowired
+    private UserFollowsMapper userFollowsMapper;
+
+    // 查关注关系的线程
+    private final AtomicInteger loaderThreads = new AtomicInteger();
+    private final ExecutorService loader = Executors.newFixedThreadPool(2, r -> {
+        Thread thread = new Thread(r, "chat-presence-" + loaderThreads.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 账号 -> 关注了他的账号
+    private final AsyncLoadingCache<String, Set<String>> followers = Caffeine.newBuilder()
+            .maximumSize(FOLLOW_CACHE_SIZE)
+            .expireAfterWrite(FOLLOW_CACHE_MINUTES, TimeUnit.MINUTES)
+            .executor(loader)
+            .buildAsync(account -> new HashSet<>(userFollowsMapper.selectFollowerAccounts(account)));
+    // 账号 -> 他关注的账号,排好序方便按游标分页
+    private final AsyncLoadingCache<String, List<String>> followings = Caffeine.newBuilder()
+            .maximumSize(FOLLOW_CACHE_SIZE)
+            .expireAfterWrite(FOLLOW_CACHE_MINUTES, TimeUnit.MINUTES)
+            .executor(loader)
+            .buildAsync(account -> {
+                List<String> accounts = new ArrayList<>(new TreeSet<>(userFollowsMapper.selectFollowingAccounts(account)));
+                return Collections.unmodifiableList(accounts);
+            });
+
+    @PreDestroy
+    public void stop() {
+        loader.shutdown();
+    }
+
+    private boolean followScoped() {
+        return SCOPE_FOLLOWS.equalsIgnoreCase(scope);
+    }
+
+    /**
+     * account上线/下线时要通知的在线账号,不含自己;是否在线按future完成时算
+     */
+    public CompletableFuture<List<String>> audience(String account, ConcurrentNavigableMap<String, ?> online) {
+        if (!followScoped()) {
+            List<String> audience = new ArrayList<>();
+            for (String other : online.keySet()) {
+                if (!other.equals(account)) {
+                    audience.add(other);
+                }
+            }
+            return CompletableFuture.completedFuture(audience);
+        }
+        return loadFollowers(account).thenApply(followerAccounts -> {
+            List<String> audience = new ArrayList<>();
+            for (String follower : followerAccounts) {
+                if (!follower.equals(account) && online.containsKey(follower)) {
+                    audience.add(follower);
+                }
+            }
+            return audience;
+        });
+    }
+
+    /**
+     * viewer能看到的在线账号,按账号排序,从cursor之后取limit个
+     */
+    public CompletableFuture<List<String>> page(String viewer, String cursor, int limit, ConcurrentNavigableMap<String, ?> online) {
+        if (followScoped()) {
+            if (viewer == null) {
+                return CompletableFuture.completedFuture(new ArrayList<>());
+            }
+            return loadFollowings(viewer).thenApply(accounts -> {
+                List<String> page = new ArrayList<>(limit);
+                int start = 0;
+                if (cursor != null) {
+                    int index = Collections.binarySearch(accounts, cursor);
+                    start = index >= 0 ? index + 1 : -index - 1;
+                }
+                for (int i = start; i < accounts.size() && page.size() < limit; i++) {
+                    if (online.containsKey(accounts.get(i))) {
+                        page.add(accounts.get(i));
+                    }
+                }
+                return page;
+            });
+        }
+        List<String> page = new ArrayList<>(limit);
+        Set<String> accounts = cursor == null ? online.keySet() : online.tailMap(cursor, false).keySet();
+        for (String account : accounts) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(account);
+        }
+        return CompletableFuture.completedFuture(page);
+    }
+
+    private CompletableFuture<Set<String>> loadFollowers(String account) {
+        return followers.get(account).exceptionally(e -> {
+            log.error("查询用户[{}]的粉丝失败", account, e);
+            return Collections.emptySet();
+        });
+    }
+
+    private CompletableFuture<List<String>> loadFollowings(String account) {
+        return followings.get(account).exceptionally(e -> {
+            log.error("查询用户[{}]的关注失败", account, e);
+            return Collections.emptyList();
+        });
+    }
+}
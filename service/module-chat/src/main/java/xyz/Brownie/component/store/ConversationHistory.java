@@ -0,0 +1,180 @@
+package xyz.Brownie.component.store;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import xyz.Brownie.component.NettyWebSocketServer.Message;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 聊天记录读写入口: MessageStore前面加一层按会话的内存热数据
+ * - 每个最近被查过的会话一个ConversationRing,保存最新RING_CAPACITY条,查最新消息直接读环尾,
+ *   耗时只和limit有关,和总消息量、会话数无关
+ * - 会话第一次被查时从存储装载,之后新消息同时写存储和环;环数量有上限,久不访问的会被淘汰
+ * - 存储读写(MySQL时是JDBC)不在Netty事件循环上做: 按会话分到几个单线程执行器上,
+ *   同一会话的写入、装载、删除在同一个线程上串行,装载期间到达的消息不会漏掉也不会重复;
+ *   方法返回CompletableFuture,环能直接回答的查询不切线程,返回已完成的future
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ConversationHistory {
+
+    private static final int RING_CAPACITY = 200;
+    private static final long MAX_RINGS = 10_000;
+    private static final long RING_IDLE_MINUTES = 30;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    private final MessageStore messageStore;
+
+    @Value("${chat.store.threads:4}")
+    private int storeThreads;
+
+    private final Cache<String, ConversationRing> rings = Caffeine.newBuilder()
+            .maximumSize(MAX_RINGS)
+            .expireAfterAccess(RING_IDLE_MINUTES, TimeUnit.MINUTES)
+            .build();
+    private ExecutorService[] executors;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger counter = new AtomicInteger();
+        executors = new ExecutorService[Math.max(1, storeThreads)];
+        for (int i = 0; i < executors.length; i++) {
+            executors[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "chat-store-" + counter.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    // 先于MessageStore关闭,排队中的写入落盘后再关存储
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        for (ExecutorService executor : executors) {
+            executor.shutdown();
+        }
+        for (ExecutorService executor : executors) {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("聊天记录写入线程未在{}秒内结束", SHUTDOWN_TIMEOUT_SECONDS);
+            }
+        }
+    }
+
+    public CompletableFuture<Void> append(Message message) {
+        String key = ConversationKey.of(message.getFrom(), message.getTo());
+        return CompletableFuture.runAsync(() -> {
+            messageStore.append(message);
+            ConversationRing ring = rings.getIfPresent(key);
+            if (ring != null) {
+                ring.push(message);
+            }
+        }, executorFor(key));
+    }
+
+    /**
+     * 两个账号之间最新的limit条消息,新的在前
+     */
+    public CompletableFuture<List<Message>> latest(String account1, String account2, int limit) {
+        String key = ConversationKey.of(account1, account2);
+        ConversationRing cached = rings.getIfPresent(key);
+        List<Message> messages = cached == null ? null : cached.tail(limit);
+        if (messages != null) {
+            return CompletableFuture.completedFuture(messages);
+        }
+        return submit(key, () -> {
+            List<Message> fromRing = ring(key, account1, account2).tail(limit);
+            // 超出环的容量,回到存储查
+            return fromRing != null ? fromRing : messageStore.latest(account1, account2, limit);
+        });
+    }
+
+    /**
+     * 往前翻页,新的在前;翻到环里没有的部分时回到存储查
+     */
+    public CompletableFuture<List<Message>> before(String account1, String account2, long beforeTs, String beforeId, int limit) {
+        String key = ConversationKey.of(account1, account2);
+        ConversationRing cached = rings.getIfPresent(key);
+        List<Message> messages = cached == null ? null : cached.before(beforeTs, beforeId, limit);
+        if (messages != null) {
+            return CompletableFuture.completedFuture(messages);
+        }
+        return submit(key, () -> {
+            List<Message> fromRing = ring(key, account1, account2).before(beforeTs, beforeId, limit);
+            return fromRing != null ? fromRing : messageStore.before(account1, account2, beforeTs, beforeId, limit);
+        });
+    }
+
+    /**
+     * 断线重连后补拉之后的消息,旧的在前
+     */
+    public CompletableFuture<List<Message>> after(String account1, String account2, long afterTs, String afterId, int limit) {
+        String key = ConversationKey.of(account1, account2);
+        return submit(key, () -> messageStore.after(account1, account2, afterTs, afterId, limit));
+    }
+
+    /**
+     * 离线消息补发后,把送达状态写回存储和环
+     */
+    public CompletableFuture<Void> markDelivered(List<Message> messages) {
+        Map<String, List<Message>> byConversation = new HashMap<>();
+        for (Message message : messages) {
+            byConversation.computeIfAbsent(ConversationKey.of(message.getFrom(), message.getTo()), k -> new ArrayList<>())
+                    .add(message);
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (Map.Entry<String, List<Message>> entry : byConversation.entrySet()) {
+            Message first = entry.getValue().get(0);
+            Set<String> ids = new HashSet<>();
+            entry.getValue().forEach(message -> ids.add(message.getId()));
+            futures.add(CompletableFuture.runAsync(() -> {
+                messageStore.markDelivered(first.getFrom(), first.getTo(), entry.getValue());
+                ConversationRing ring = rings.getIfPresent(entry.getKey());
+                if (ring != null) {
+                    ring.markDelivered(ids);
+                }
+            }, executorFor(entry.getKey())));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    public CompletableFuture<Integer> deleteConversation(String account1, String account2) {
+        String key = ConversationKey.of(account1, account2);
+        return submit(key, () -> {
+            int deleted = messageStore.deleteConversation(account1, account2);
+            rings.put(key, ConversationRing.seed(RING_CAPACITY, Collections.emptyList()));
+            return deleted;
+        });
+    }
+
+    // 只在会话所属的执行器上调用
+    private ConversationRing ring(String key, String account1, String account2) {
+        ConversationRing ring = rings.getIfPresent(key);
+        if (ring == null) {
+            ring = ConversationRing.seed(RING_CAPACITY, messageStore.latest(account1, account2, RING_CAPACITY));
+            rings.put(key, ring);
+        }
+        return ring;
+    }
+
+    private <T> CompletableFuture<T> submit(String key, Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, executorFor(key));
+    }
+
+    private ExecutorService executorFor(String key) {
+        return executors[(key.hashCode() & 0x7fffffff) % executors.length];
+    }
+}
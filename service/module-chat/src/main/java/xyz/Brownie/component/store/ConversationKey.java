@@ -0,0 +1,18 @@
+package xyz.Brownie.component.store;
+
+/**
+ * 会话键: 两个账号排序后拼接,A发给B和B发给A落在同一个会话里
+ */
+public final class ConversationKey {
+
+    private static final char SEPARATOR = '|';
+
+    private ConversationKey() {
+    }
+
+    public static String of(String account1, String account2) {
+        return account1.compareTo(account2) <= 0
+                ? account1 + SEPARATOR + account2
+                : account2 + SEPARATOR + account1;
+    }
+}
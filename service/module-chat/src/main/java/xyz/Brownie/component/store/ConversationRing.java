@@ -0,0 +1,104 @@
+package xyz.Brownie.component.store;
+
+import xyz.Brownie.component.NettyWebSocketServer.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 一个会话最新的若干条消息,定长环形数组,按MessageOrder排序,写满后丢掉最旧的一条
+ */
+final class ConversationRing {
+
+    private final Message[] slots;
+    // 最旧一条的位置
+    private int start;
+    private int size;
+    // 会话的全部消息都在环里(装载时不足容量),任意limit都能直接回答
+    private boolean complete;
+
+    ConversationRing(int capacity) {
+        this.slots = new Message[capacity];
+    }
+
+    /**
+     * 用存储里最新的消息(新的在前)初始化
+     */
+    static ConversationRing seed(int capacity, List<Message> newestFirst) {
+        ConversationRing ring = new ConversationRing(capacity);
+        for (int i = newestFirst.size() - 1; i >= 0; i--) {
+            ring.push(newestFirst.get(i));
+        }
+        ring.complete = newestFirst.size() < capacity;
+        return ring;
+    }
+
+    synchronized void push(Message message) {
+        if (size == slots.length) {
+            complete = false;
+            // 比环里最旧的还旧,环里放的仍是最新的若干条,不用收
+            if (MessageOrder.compare(message, get(0)) < 0) {
+                return;
+            }
+            start = (start + 1) % slots.length;
+            size--;
+        }
+        // 并发发送时时间戳可能略微乱序,往前挪到有序的位置,通常一步都不用挪
+        int i = size++;
+        while (i > 0 && MessageOrder.compare(get(i - 1), message) > 0) {
+            set(i, get(i - 1));
+            i--;
+        }
+        set(i, message);
+    }
+
+    // 环里id在ids中的消息标记为已送达
+    synchronized void markDelivered(Set<String> ids) {
+        for (int i = 0; i < size; i++) {
+            Message message = get(i);
+            if (ids.contains(message.getId())) {
+                message.setDelivered(true);
+            }
+        }
+    }
+
+    /**
+     * 最新的limit条,新的在前;环里的消息不够回答时返回null
+     */
+    synchronized List<Message> tail(int limit) {
+        if (limit > size && !complete) {
+            return null;
+        }
+        int count = Math.min(limit, size);
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            messages.add(get(size - i));
+        }
+        return messages;
+    }
+
+    /**
+     * 排在游标(beforeTs, beforeId)之前的limit条,新的在前,beforeId为空时只比时间;
+     * 环里是整个会话最新的一段,取不满limit且环里不是全部消息时返回null,由存储回答
+     */
+    synchronized List<Message> before(long beforeTs, String beforeId, int limit) {
+        List<Message> messages = new ArrayList<>(limit);
+        for (int i = size - 1; i >= 0 && messages.size() < limit; i--) {
+            Message message = get(i);
+            if (MessageOrder.isBefore(message, beforeTs, beforeId)) {
+                messages.add(message);
+            }
+        }
+        return messages.size() == limit || complete ? messages : null;
+    }
+
+    // 下标0是最旧的一条
+    private Message get(int index) {
+        return slots[(start + index) % slots.length];
+    }
+
+    private void set(int index, Message message) {
+        slots[(start + index) % slots.length] = message;
+    }
+}
@@ -0,0 +1,42 @@
+package xyz.Brownie.component.store;
+
+import xyz.Brownie.component.NettyWebSocketServer.Message;
+
+/**
+ * 会话内消息的全序: 先按时间,同一毫秒再按id(按字符比较,MySQL里id列是utf8mb4_bin);
+ * 环、分段日志、chat_message表都按这个顺序排序和切游标,翻页在各层之间切换时不会重复或漏掉
+ */
+public final class MessageOrder {
+
+    private MessageOrder() {
+    }
+
+    public static int compare(long ts1, String id1, long ts2, String id2) {
+        int byTime = Long.compare(ts1, ts2);
+        return byTime != 0 ? byTime : id1.compareTo(id2);
+    }
+
+    public static int compare(Message a, Message b) {
+        return compare(a.getTimestamp(), a.getId(), b.getTimestamp(), b.getId());
+    }
+
+    /**
+     * message是否严格排在游标(cursorTs, cursorId)之前;cursorId为空时只比时间
+     */
+    public static boolean isBefore(Message message, long cursorTs, String cursorId) {
+        if (cursorId == null) {
+            return message.getTimestamp() < cursorTs;
+        }
+        return compare(message.getTimestamp(), message.getId(), cursorTs, cursorId) < 0;
+    }
+
+    /**
+     * message是否严格排在游标(cursorTs, cursorId)之后;cursorId为空时只比时间
+     */
+    public static boolean isAfter(Message message, long cursorTs, String cursorId) {
+        if (cursorId == null) {
+            return message.getTimestamp() > cursorTs;
+        }
+        return compare(message.getTimestamp(), message.getId(), cursorTs, cursorId) > 0;
+    }
+}
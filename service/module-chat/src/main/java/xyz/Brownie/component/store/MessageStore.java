@@ -0,0 +1,48 @@
+package xyz.Brownie.component.store;
+
+import xyz.Brownie.component.NettyWebSocketServer.Message;
+
+import java.util.List;
+
+/**
+ * 聊天消息的持久化存储,按会话(两个账号组成的无序对,见ConversationKey)建索引,
+ * 会话内按MessageOrder的(时间, id)排序
+ * - chat.store.type=log: 本地磁盘上的分段追加日志,见SegmentedLogMessageStore
+ * - chat.store.type=mysql: chat_message表,见MySqlMessageStore
+ */
+public interface MessageStore {
+
+    /**
+     * 追加一条消息
+     */
+    void append(Message message);
+
+    /**
+     * 两个账号之间最新的limit条消息,新的在前
+     */
+    List<Message> latest(String account1, String account2, int limit);
+
+    /**
+     * 往前翻页: 排在(beforeTs, beforeId)之前的limit条消息,新的在前;
+     * beforeId为空时取时间早于beforeTs的
+     */
+    List<Message> before(String account1, String account2, long beforeTs, String beforeId, int limit);
+
+    /**
+     * 往后追: 排在(afterTs, afterId)之后的limit条消息,旧的在前;
+     * afterId为空时取时间晚于afterTs的
+     */
+    List<Message> after(String account1, String account2, long afterTs, String afterId, int limit);
+
+    /**
+     * 把两个账号之间的这些消息(按id)标记为已送达,离线消息补发后调用,返回实际更新的条数
+     */
+    int markDelivered(String account1, String account2, List<Message> messages);
+
+    /**
+     * 删除两个账号之间的全部消息,返回删除条数;删除后立即查不到
+     * - MySqlMessageStore直接删除表里的行
+     * - SegmentedLogMessageStore先追加删除记录,消息还留在磁盘上,等后台压缩所在分段时才从文件里去掉
+     */
+    int deleteConversation(String account1, String account2);
+}
@@ -0,0 +1,120 @@
+package xyz.Brownie.component.store;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import xyz.Brownie.bean.entity.ChatMessage;
+import xyz.Brownie.component.NettyWebSocketServer.Message;
+import xyz.Brownie.mapper.ChatMessageMapper;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 存在chat_message表里,按(conversation_key, send_time)索引取会话历史,多实例部署时用这个;
+ * 同一毫秒按id排序,和MessageOrder一致
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "chat.store", name = "type", havingValue = "mysql")
+public class MySqlMessageStore implements MessageStore {
+
+    private final ChatMessageMapper chatMessageMapper;
+
+    @Override
+    public void append(Message message) {
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.setId(message.getId());
+        chatMessage.setConversationKey(ConversationKey.of(message.getFrom(), message.getTo()));
+        chatMessage.setFromAccount(message.getFrom());
+        chatMessage.setFromName(message.getFromName());
+        chatMessage.setToAccount(message.getTo());
+        chatMessage.setToName(message.getToName());
+        chatMessage.setText(message.getText());
+        chatMessage.setAvatar(message.getAvatar());
+        chatMessage.setSendTime(message.getTimestamp());
+        chatMessage.setDelivered(message.isDelivered() ? 1 : 0);
+        chatMessageMapper.insert(chatMessage);
+    }
+
+    @Override
+    public List<Message> latest(String account1, String account2, int limit) {
+        LambdaQueryWrapper<ChatMessage> wrapper = new LambdaQueryWrapper<>();
+        wrapper.eq(ChatMessage::getConversationKey, ConversationKey.of(account1, account2))
+                .orderByDesc(ChatMessage::getSendTime, ChatMessage::getId)
+                .last("limit " + Math.max(limit, 0));
+        return selectMessages(wrapper);
+    }
+
+    @Override
+    public List<Message> before(String account1, String account2, long beforeTs, String beforeId, int limit) {
+        LambdaQueryWrapper<ChatMessage> wrapper = new LambdaQueryWrapper<>();
+        wrapper.eq(ChatMessage::getConversationKey, ConversationKey.of(account1, account2));
+        if (beforeId == null) {
+            wrapper.lt(ChatMessage::getSendTime, beforeTs);
+        } else {
+            wrapper.and(w -> w.lt(ChatMessage::getSendTime, beforeTs)
+                    .or(o -> o.eq(ChatMessage::getSendTime, beforeTs).lt(ChatMessage::getId, beforeId)));
+        }
+        wrapper.orderByDesc(ChatMessage::getSendTime, ChatMessage::getId)
+                .last("limit " + Math.max(limit, 0));
+        return selectMessages(wrapper);
+    }
+
+    @Override
+    public List<Message> after(String account1, String account2, long afterTs, String afterId, int limit) {
+        LambdaQueryWrapper<ChatMessage> wrapper = new LambdaQueryWrapper<>();
+        wrapper.eq(ChatMessage::getConversationKey, ConversationKey.of(account1, account2));
+        if (afterId == null) {
+            wrapper.gt(ChatMessage::getSendTime, afterTs);
+        } else {
+            wrapper.and(w -> w.gt(ChatMessage::getSendTime, afterTs)
+                    .or(o -> o.eq(ChatMessage::getSendTime, afterTs).gt(ChatMessage::getId, afterId)));
+        }
+        wrapper.orderByAsc(ChatMessage::getSendTime, ChatMessage::getId)
+                .last("limit " + Math.max(limit, 0));
+        return selectMessages(wrapper);
+    }
+
+    @Override
+    public int markDelivered(String account1, String account2, List<Message> messages) {
+        if (messages.isEmpty()) {
+            return 0;
+        }
+        LambdaUpdateWrapper<ChatMessage> wrapper = new LambdaUpdateWrapper<>();
+        wrapper.eq(ChatMessage::getConversationKey, ConversationKey.of(account1, account2))
+                .in(ChatMessage::getId, messages.stream().map(Message::getId).collect(Collectors.toList()))
+                .eq(ChatMessage::getDelivered, 0)
+                .set(ChatMessage::getDelivered, 1);
+        return chatMessageMapper.update(null, wrapper);
+    }
+
+    @Override
+    public int deleteConversation(String account1, String account2) {
+        LambdaQueryWrapper<ChatMessage> wrapper = new LambdaQueryWrapper<>();
+        wrapper.eq(ChatMessage::getConversationKey, ConversationKey.of(account1, account2));
+        return chatMessageMapper.delete(wrapper);
+    }
+
+    private List<Message> selectMessages(LambdaQueryWrapper<ChatMessage> wrapper) {
+        return chatMessageMapper.selectList(wrapper).stream()
+                .map(MySqlMessageStore::toMessage)
+                .collect(Collectors.toList());
+    }
+
+    private static Message toMessage(ChatMessage chatMessage) {
+        return new Message(
+                chatMessage.getId(),
+                chatMessage.getFromAccount(),
+                chatMessage.getFromName(),
+                chatMessage.getToAccount(),
+                chatMessage.getToName(),
+                chatMessage.getText(),
+                chatMessage.getSendTime(),
+                chatMessage.getDelivered() != null && chatMessage.getDelivered() == 1,
+                chatMessage.getAvatar()
+        );
+    }
+}
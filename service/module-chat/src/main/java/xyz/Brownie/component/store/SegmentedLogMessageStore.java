@@ -0,0 +1,780 @@
+package xyz.Brownie.component.store;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import xyz.Brownie.component.NettyWebSocketServer.Message;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 本地磁盘上的分段追加日志
+ * - 每个分段是一个固定大小、内存映射的文件,写满后换下一个分段,追加是O(1)
+ * - 记录格式: [int 长度][int CRC32][byte 类型][内容],长度和CRC覆盖类型加内容,长度最后写;
+ *   消息记录里的送达标记在补发离线消息后原地改写(单字节写入),不计入CRC
+ *   重放时遇到长度为0当作分段结尾,遇到长度非法、CRC不符或解析失败的记录,记日志后从这里截断,保留前面完好的记录
+ * - 后台线程定期把脏页刷到磁盘(fsync),两次刷盘之间掉电最多丢失一个间隔内的消息
+ * - 内存里按会话保存记录位置和时间,按MessageOrder(时间,同一毫秒按id)有序,启动时顺序重放所有分段重建;
+ *   删除会话追加一条删除记录,并从内存索引里去掉该会话
+ * - 后台定期压缩写满的分段: 一半以上记录已不在索引里(所在会话被删除)的分段,只把还在索引里的消息
+ *   和删除记录拷到新文件,原子替换原分段后更新索引里的位置;没有剩余记录的分段直接删掉。
+ *   被删的消息因此会在一个压缩周期内从磁盘上消失,启动重放的数据量也随之减少。
+ *   删除记录只在存在更早的分段时保留(更早的分段里可能还有它要删掉的消息)
+ * - 翻页时在会话内二分查找游标时间,只读取返回的那几条记录
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "chat.store", name = "type", havingValue = "log", matchIfMissing = true)
+public class SegmentedLogMessageStore implements MessageStore {
+
+    private static final byte TYPE_MESSAGE = 1;
+    private static final byte TYPE_DELETE = 2;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final Pattern SEGMENT_NAME = Pattern.compile("(\\d{1,10})\\.log");
+    // 压缩时先写到这个后缀的文件,完成后再原子替换;启动时残留的是上次压缩到一半,直接删掉
+    private static final String COMPACT_SUFFIX = ".compact";
+    // 长度和CRC
+    private static final int HEADER_SIZE = 8;
+    // 消息记录里送达标记相对类型字节的位置: 类型(1) + 时间(8)
+    private static final int DELIVERED_INDEX = 9;
+    // 单条记录的长度上限,重放时超过视为文件损坏
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    private final Path dir;
+    private final int segmentSize;
+    private final long fsyncIntervalMs;
+    private final long compactIntervalMs;
+
+    // 分段编号 -> 分段
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+    // 会话键 -> 该会话的记录位置
+    private final Map<String, ConversationLog> index = new ConcurrentHashMap<>();
+    private volatile Segment active;
+    private volatile boolean dirty;
+    private ScheduledExecutorService flusher;
+    // 读记录和改送达标记持有读锁;压缩替换分段、改写索引位置时持有写锁,读到的位置和分段总是一致的
+    private final ReentrantReadWriteLock segmentLock = new ReentrantReadWriteLock();
+
+    public SegmentedLogMessageStore(@Value("${chat.store.log.dir:./data/chat}") String dir,
+                                    @Value("${chat.store.log.segment-size:67108864}") int segmentSize,
+                                    @Value("${chat.store.log.fsync-interval-ms:1000}") long fsyncIntervalMs,
+                                    @Value("${chat.store.log.compact-interval-ms:600000}") long compactIntervalMs) {
+        this.dir = Paths.get(dir);
+        this.segmentSize = segmentSize;
+        this.fsyncIntervalMs = fsyncIntervalMs;
+        this.compactIntervalMs = compactIntervalMs;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        Files.createDirectories(dir);
+        // 分段编号 -> 文件,文件名不是分段编号的跳过
+        TreeMap<Integer, Path> files = new TreeMap<>();
+        try (Stream<Path> stream = Files.list(dir)) {
+            stream.forEach(file -> {
+                if (file.getFileName().toString().endsWith(COMPACT_SUFFIX)) {
+                    deleteQuietly(file);
+                    return;
+                }
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                long id = matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+                if (id < 0 || id > Integer.MAX_VALUE) {
+                    log.warn("忽略聊天消息日志目录中的无关文件：{}", file.getFileName());
+                    return;
+                }
+                files.put((int) id, file);
+            });
+        }
+        long records = 0;
+        for (Map.Entry<Integer, Path> entry : files.entrySet()) {
+            // 写满或压缩过的分段按文件实际大小映射,只有最后一个分段还要继续写
+            int mapSize = entry.getKey().equals(files.lastKey()) ? segmentSize : 0;
+            Segment segment = Segment.open(entry.getValue(), entry.getKey(), mapSize);
+            // 先登记再重放,同一毫秒的消息排序时要按位置读id
+            segments.put(entry.getKey(), segment);
+            records += replay(segment);
+            active = segment;
+        }
+        if (active == null) {
+            active = createSegment(0);
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-store-fsync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, fsyncIntervalMs, fsyncIntervalMs, TimeUnit.MILLISECONDS);
+        flusher.scheduleWithFixedDelay(this::compactQuietly, compactIntervalMs, compactIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("聊天消息日志已加载，目录：{}，分段数：{}，记录数：{}，会话数：{}", dir.toAbsolutePath(),
+                segments.size(), records, index.size());
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    @Override
+    public synchronized void append(Message message) {
+        String key = ConversationKey.of(message.getFrom(), message.getTo());
+        long position = write(encodeMessage(message));
+        index.computeIfAbsent(key, k -> new ConversationLog(this::readId)).add(position, message.getTimestamp(), message.getId());
+    }
+
+    @Override
+    public List<Message> latest(String account1, String account2, int limit) {
+        ConversationLog conversation = index.get(ConversationKey.of(account1, account2));
+        if (conversation == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+        segmentLock.readLock().lock();
+        try {
+            return readAll(conversation.tail(limit));
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> before(String account1, String account2, long beforeTs, String beforeId, int limit) {
+        ConversationLog conversation = index.get(ConversationKey.of(account1, account2));
+        if (conversation == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+        List<Message> result = new ArrayList<>(limit);
+        List<Message> candidates;
+        segmentLock.readLock().lock();
+        try {
+            candidates = readAll(conversation.olderThan(beforeTs, beforeId != null, limit));
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+        for (Message message : candidates) {
+            if (result.size() < limit && MessageOrder.isBefore(message, beforeTs, beforeId)) {
+                result.add(message);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Message> after(String account1, String account2, long afterTs, String afterId, int limit) {
+        ConversationLog conversation = index.get(ConversationKey.of(account1, account2));
+        if (conversation == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+        List<Message> result = new ArrayList<>(limit);
+        List<Message> candidates;
+        segmentLock.readLock().lock();
+        try {
+            candidates = readAll(conversation.newerThan(afterTs, afterId != null, limit));
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+        for (Message message : candidates) {
+            if (result.size() < limit && MessageOrder.isAfter(message, afterTs, afterId)) {
+                result.add(message);
+            }
+        }
+        return result;
+    }
+
+    private List<Message> readAll(long[] positions) {
+        List<Message> messages = new ArrayList<>(positions.length);
+        for (long position : positions) {
+            messages.add(read(position));
+        }
+        return messages;
+    }
+
+    @Override
+    public int markDelivered(String account1, String account2, List<Message> messages) {
+        ConversationLog conversation = index.get(ConversationKey.of(account1, account2));
+        if (conversation == null || messages.isEmpty()) {
+            return 0;
+        }
+        Set<String> ids = new HashSet<>();
+        long since = Long.MAX_VALUE;
+        for (Message message : messages) {
+            ids.add(message.getId());
+            since = Math.min(since, message.getTimestamp());
+        }
+        segmentLock.readLock().lock();
+        try {
+            return markDelivered(conversation, ids, since);
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    private int markDelivered(ConversationLog conversation, Set<String> ids, long since) {
+        int marked = 0;
+        Set<Segment> touched = new HashSet<>();
+        for (long position : conversation.since(since)) {
+            Segment segment = segments.get((int) (position >>> 32));
+            int offset = (int) position;
+            if (!ids.remove(readId(position))) {
+                continue;
+            }
+            int flag = offset + HEADER_SIZE + DELIVERED_INDEX;
+            if (segment.buffer.get(flag) == 0) {
+                segment.buffer.put(flag, (byte) 1);
+                touched.add(segment);
+                marked++;
+            }
+            if (ids.isEmpty()) {
+                break;
+            }
+        }
+        dirty = true;
+        // 旧分段不归定时刷盘管,改了直接刷
+        for (Segment segment : touched) {
+            if (segment != active) {
+                segment.buffer.force();
+            }
+        }
+        return marked;
+    }
+
+    @Override
+    public synchronized int deleteConversation(String account1, String account2) {
+        String key = ConversationKey.of(account1, account2);
+        write(encodeDelete(key));
+        ConversationLog removed = index.remove(key);
+        return removed == null ? 0 : removed.size();
+    }
+
+    /**
+     * 压缩写满的分段,返回压缩(含删除)的分段数;后台定时调用
+     */
+    public synchronized int compact() throws IOException {
+        // 每个分段里还在索引中的消息偏移
+        Map<Integer, Set<Integer>> live = new HashMap<>();
+        for (ConversationLog conversation : index.values()) {
+            for (long position : conversation.positions()) {
+                live.computeIfAbsent((int) (position >>> 32), k -> new HashSet<>()).add((int) position);
+            }
+        }
+        int compacted = 0;
+        for (Segment segment : new TreeMap<>(segments).values()) {
+            if (segment == active) {
+                continue;
+            }
+            Set<Integer> offsets = live.getOrDefault(segment.id, Collections.emptySet());
+            boolean keepTombstones = segments.keySet().stream().anyMatch(id -> id < segment.id);
+            int dead = segment.messages - offsets.size();
+            // 一半以上的消息已删除,或者删除记录前面已经没有分段、不再有用,才值得重写
+            if (!(dead > 0 && dead * 2 >= segment.messages) && (keepTombstones || segment.tombstones == 0)) {
+                continue;
+            }
+            if (offsets.isEmpty() && (!keepTombstones || segment.tombstones == 0)) {
+                drop(segment);
+            } else {
+                rewrite(segment, offsets, keepTombstones);
+            }
+            compacted++;
+        }
+        return compacted;
+    }
+
+    private void compactQuietly() {
+        try {
+            int compacted = compact();
+            if (compacted > 0) {
+                log.info("聊天消息日志压缩完成，分段数：{}，剩余分段：{}", compacted, segments.size());
+            }
+        } catch (Exception e) {
+            log.error("聊天消息日志压缩失败", e);
+        }
+    }
+
+    // 分段里没有需要保留的记录,整个删掉
+    private void drop(Segment segment) throws IOException {
+        segmentLock.writeLock().lock();
+        try {
+            segments.remove(segment.id);
+            segment.close();
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+        Files.deleteIfExists(segment.file);
+    }
+
+    // 只保留索引里还在的消息(和需要的删除记录),写到新文件后原子替换原分段,再改写索引里的位置
+    private void rewrite(Segment segment, Set<Integer> liveOffsets, boolean keepTombstones) throws IOException {
+        Path compacting = segment.file.resolveSibling(segment.file.getFileName() + COMPACT_SUFFIX);
+        Map<Integer, Integer> moved = new HashMap<>();
+        segmentLock.writeLock().lock();
+        try {
+            int messages = 0;
+            int tombstones = 0;
+            try (FileChannel out = FileChannel.open(compacting, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                int offset = 0;
+                int newOffset = 0;
+                while (offset < segment.writePosition) {
+                    int total = HEADER_SIZE + segment.buffer.getInt(offset);
+                    boolean message = segment.buffer.get(offset + HEADER_SIZE) == TYPE_MESSAGE;
+                    if (message ? liveOffsets.contains(offset) : keepTombstones) {
+                        ByteBuffer record = segment.buffer.duplicate();
+                        record.limit(offset + total);
+                        record.position(offset);
+                        while (record.hasRemaining()) {
+                            out.write(record);
+                        }
+                        if (message) {
+                            moved.put(offset, newOffset);
+                            messages++;
+                        } else {
+                            tombstones++;
+                        }
+                        newOffset += total;
+                    }
+                    offset += total;
+                }
+                out.force(true);
+            }
+            Files.move(compacting, segment.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Segment replaced = Segment.open(segment.file, segment.id, 0);
+            replaced.writePosition = replaced.capacity();
+            replaced.messages = messages;
+            replaced.tombstones = tombstones;
+            segments.put(segment.id, replaced);
+            segment.close();
+            for (ConversationLog conversation : index.values()) {
+                conversation.relocate(segment.id, moved);
+            }
+        } finally {
+            segmentLock.writeLock().unlock();
+            deleteQuietly(compacting);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("删除聊天消息日志临时文件失败：{}", file, e);
+        }
+    }
+
+    // 追加一条记录,返回位置: 高32位分段编号,低32位分段内偏移
+    private long write(byte[] record) {
+        if (record.length > MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("消息过大: " + record.length);
+        }
+        if (active.writePosition + HEADER_SIZE + record.length > active.capacity()) {
+            roll();
+        }
+        Segment segment = active;
+        int offset = segment.writePosition;
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(offset + HEADER_SIZE);
+        buffer.put(record);
+        segment.buffer.putInt(offset + 4, checksum(ByteBuffer.wrap(record)));
+        segment.buffer.putInt(offset, record.length);
+        segment.writePosition = offset + HEADER_SIZE + record.length;
+        segment.count(record[0]);
+        dirty = true;
+        return ((long) segment.id << 32) | offset;
+    }
+
+    private void roll() {
+        Segment previous = active;
+        previous.buffer.force();
+        active = createSegment(previous.id + 1);
+        log.info("聊天消息日志切换到新分段：{}", active.id);
+    }
+
+    private Segment createSegment(int id) {
+        try {
+            Segment segment = Segment.open(dir.resolve(String.format("%010d%s", id, SEGMENT_SUFFIX)), id, segmentSize);
+            segments.put(id, segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flush() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        try {
+            active.buffer.force();
+        } catch (Exception e) {
+            dirty = true;
+            log.error("聊天消息日志刷盘失败", e);
+        }
+    }
+
+    /**
+     * 顺序重放一个分段,重建会话索引并定位写入位置,返回记录数;
+     * 遇到损坏的记录时写入位置截断到它前面,之后的内容清零,新记录从这里接着写
+     */
+    private long replay(Segment segment) {
+        int offset = 0;
+        long records = 0;
+        String corruption = null;
+        while (offset + HEADER_SIZE <= segment.capacity()) {
+            int length = segment.buffer.getInt(offset);
+            if (length == 0) {
+                break;
+            }
+            if (length < 0 || length > MAX_RECORD_SIZE || offset + HEADER_SIZE + length > segment.capacity()) {
+                corruption = "长度无效: " + length;
+                break;
+            }
+            ByteBuffer record = recordBuffer(segment.buffer, offset, length);
+            if (checksum(record) != segment.buffer.getInt(offset + 4)) {
+                corruption = "CRC不符";
+                break;
+            }
+            try {
+                segment.count(apply(segment.id, offset, record));
+            } catch (RuntimeException e) {
+                corruption = "解析失败: " + e;
+                break;
+            }
+            offset += HEADER_SIZE + length;
+            records++;
+        }
+        if (corruption != null) {
+            log.warn("聊天消息日志分段{}在偏移{}处损坏({})，已截断，保留之前的{}条记录", segment.id, offset, corruption, records);
+            // 清掉残留字节,免得新记录覆盖一部分后,后面的旧记录又被当成有效记录重放
+            for (int i = offset; i < segment.capacity(); i++) {
+                segment.buffer.put(i, (byte) 0);
+            }
+            segment.buffer.force();
+        }
+        segment.writePosition = offset;
+        return records;
+    }
+
+    // 先完整解析再改索引,解析到一半失败时索引不受影响;返回记录类型
+    private byte apply(int segmentId, int offset, ByteBuffer record) {
+        byte type = record.get();
+        if (type == TYPE_MESSAGE) {
+            Message message = decodeMessage(record);
+            long position = ((long) segmentId << 32) | offset;
+            index.computeIfAbsent(ConversationKey.of(message.getFrom(), message.getTo()), k -> new ConversationLog(this::readId))
+                    .add(position, message.getTimestamp(), message.getId());
+        } else if (type == TYPE_DELETE) {
+            record.getLong();
+            index.remove(readString(record));
+        } else {
+            throw new IllegalStateException("未知的记录类型: " + type);
+        }
+        return type;
+    }
+
+    private Message read(long position) {
+        Segment segment = segments.get((int) (position >>> 32));
+        int offset = (int) position;
+        ByteBuffer record = recordBuffer(segment.buffer, offset, segment.buffer.getInt(offset));
+        record.get();
+        return decodeMessage(record);
+    }
+
+    // 只读消息记录里的id
+    private String readId(long position) {
+        Segment segment = segments.get((int) (position >>> 32));
+        int offset = (int) position;
+        ByteBuffer record = recordBuffer(segment.buffer, offset, segment.buffer.getInt(offset));
+        record.position(DELIVERED_INDEX + 1);
+        return readString(record);
+    }
+
+    // 类型加内容的CRC32,消息记录的送达标记按0计算
+    private static int checksum(ByteBuffer record) {
+        ByteBuffer body = record.duplicate();
+        CRC32 crc = new CRC32();
+        int start = body.position();
+        if (body.remaining() > DELIVERED_INDEX && body.get(start) == TYPE_MESSAGE) {
+            ByteBuffer head = body.duplicate();
+            head.limit(start + DELIVERED_INDEX);
+            crc.update(head);
+            crc.update(0);
+            body.position(start + DELIVERED_INDEX + 1);
+        }
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    // 记录的类型加内容,不改动原buffer的position/limit
+    private static ByteBuffer recordBuffer(ByteBuffer segmentBuffer, int offset, int length) {
+        ByteBuffer buffer = segmentBuffer.duplicate();
+        buffer.limit(offset + HEADER_SIZE + length);
+        buffer.position(offset + HEADER_SIZE);
+        return buffer.slice();
+    }
+
+    private static byte[] encodeMessage(Message message) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(TYPE_MESSAGE);
+            out.writeLong(message.getTimestamp());
+            out.writeBoolean(message.isDelivered());
+            writeString(out, message.getId());
+            writeString(out, message.getFrom());
+            writeString(out, message.getFromName());
+            writeString(out, message.getTo());
+            writeString(out, message.getToName());
+            writeString(out, message.getText());
+            writeString(out, message.getAvatar());
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] encodeDelete(String conversationKey) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(TYPE_DELETE);
+            out.writeLong(System.currentTimeMillis());
+            writeString(out, conversationKey);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Message decodeMessage(ByteBuffer record) {
+        long timestamp = record.getLong();
+        boolean delivered = record.get() != 0;
+        String id = readString(record);
+        String from = readString(record);
+        String fromName = readString(record);
+        String to = readString(record);
+        String toName = readString(record);
+        String text = readString(record);
+        String avatar = readString(record);
+        return new Message(id, from, fromName, to, toName, text, timestamp, delivered, avatar);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > record.remaining()) {
+            throw new IllegalStateException("字符串长度越界: " + length);
+        }
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final Path file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        // 只在持有store锁时修改
+        private volatile int writePosition;
+        // 分段里的消息记录数和删除记录数,压缩时判断删掉的比例
+        private int messages;
+        private int tombstones;
+
+        private Segment(int id, Path file, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment open(Path file, int id, int size) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long mapSize = Math.max(size, channel.size());
+            return new Segment(id, file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, mapSize));
+        }
+
+        void count(byte type) {
+            if (type == TYPE_MESSAGE) {
+                messages++;
+            } else {
+                tombstones++;
+            }
+        }
+
+        int capacity() {
+            return buffer.capacity();
+        }
+
+        void close() {
+            try {
+                buffer.force();
+                channel.close();
+            } catch (IOException e) {
+                log.error("关闭聊天消息日志分段失败：{}", id, e);
+            }
+        }
+    }
+
+    /**
+     * 一个会话的记录位置和时间,按时间排序,同一毫秒的按id;
+     * id不常驻内存,只在遇到同一毫秒的记录时按位置从日志里读
+     */
+    private static final class ConversationLog {
+        private final LongFunction<String> idAt;
+        private long[] positions = new long[16];
+        private long[] timestamps = new long[16];
+        private int size;
+
+        ConversationLog(LongFunction<String> idAt) {
+            this.idAt = idAt;
+        }
+
+        synchronized void add(long position, long timestamp, String id) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+            }
+            // 并发发送时时间戳可能略微乱序,往前挪到有序的位置,通常一步都不用挪
+            int i = size++;
+            while (i > 0 && (timestamps[i - 1] > timestamp
+                    || timestamps[i - 1] == timestamp && idAt.apply(positions[i - 1]).compareTo(id) > 0)) {
+                positions[i] = positions[i - 1];
+                timestamps[i] = timestamps[i - 1];
+                i--;
+            }
+            positions[i] = position;
+            timestamps[i] = timestamp;
+        }
+
+        // 时间不早于ts的所有位置,旧的在前
+        synchronized long[] since(long ts) {
+            int start = lowerBound(ts);
+            return Arrays.copyOfRange(positions, start, size);
+        }
+
+        // 最后n条的位置,新的在前
+        synchronized long[] tail(int n) {
+            int count = Math.min(n, size);
+            long[] result = new long[count];
+            for (int i = 0; i < count; i++) {
+                result[i] = positions[size - 1 - i];
+            }
+            return result;
+        }
+
+        /**
+         * 时间早于ts的最后limit条,新的在前;inclusive时再带上时间等于ts的全部,由调用方按id切
+         */
+        synchronized long[] olderThan(long ts, boolean inclusive, int limit) {
+            int lower = lowerBound(ts);
+            int end = inclusive ? upperBound(ts) : lower;
+            int count = Math.min(limit + (end - lower), end);
+            long[] result = new long[count];
+            for (int i = 0; i < count; i++) {
+                result[i] = positions[end - 1 - i];
+            }
+            return result;
+        }
+
+        /**
+         * 时间晚于ts的前limit条,旧的在前;inclusive时先带上时间等于ts的全部,由调用方按id切
+         */
+        synchronized long[] newerThan(long ts, boolean inclusive, int limit) {
+            int upper = upperBound(ts);
+            int start = inclusive ? lowerBound(ts) : upper;
+            int count = Math.min(limit + (upper - start), size - start);
+            long[] result = new long[count];
+            System.arraycopy(positions, start, result, 0, count);
+            return result;
+        }
+
+        // 第一个时间>=ts的下标
+        private int lowerBound(long ts) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (timestamps[mid] < ts) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // 第一个时间>ts的下标
+        private int upperBound(long ts) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (timestamps[mid] <= ts) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized long[] positions() {
+            return Arrays.copyOf(positions, size);
+        }
+
+        // 分段压缩后,把该分段里的位置换成新文件里的偏移
+        synchronized void relocate(int segmentId, Map<Integer, Integer> moved) {
+            for (int i = 0; i < size; i++) {
+                if ((int) (positions[i] >>> 32) == segmentId) {
+                    positions[i] = ((long) segmentId << 32) | moved.get((int) positions[i]);
+                }
+            }
+        }
+    }
+}
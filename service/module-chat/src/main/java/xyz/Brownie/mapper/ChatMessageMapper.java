@@ -0,0 +1,14 @@
+package xyz.Brownie.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Mapper;
+import xyz.Brownie.bean.entity.ChatMessage;
+
+/**
+* @description 针对表【chat_message】的数据库操作Mapper
+* @Entity xyz.Brownie.bean.entity.ChatMessage
+*/
+@Mapper
+public interface ChatMessageMapper extends BaseMapper<ChatMessage> {
+
+}
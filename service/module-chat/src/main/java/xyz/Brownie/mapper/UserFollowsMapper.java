@@ -1,6 +1,7 @@
 package xyz.Brownie.mapper;
 
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 import xyz.Brownie.bean.entity.User;
 import xyz.Brownie.bean.entity.UserFollows;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
@@ -17,6 +18,16 @@ import java.util.List;
 public interface UserFollowsMapper extends BaseMapper<UserFollows> {
 
     List<User> getFollowsListByUserId(Long userId);
+
+    /**
+     * 关注了该账号的用户账号
+     */
+    List<String> selectFollowerAccounts(@Param("account") String account);
+
+    /**
+     * 该账号关注的用户账号
+     */
+    List<String> selectFollowingAccounts(@Param("account") String account);
 }
 
 
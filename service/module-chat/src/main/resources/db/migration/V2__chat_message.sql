@@ -0,0 +1,17 @@
+-- 聊天消息持久化(chat.store.type=mysql时使用)
+create table if not exists chat_message
+(
+    id               varchar(64)   not null comment '消息ID' primary key,
+    conversation_key varchar(255)  not null comment '会话键(两个账号排序后拼接)',
+    from_account     varchar(100)  not null comment '发送者账号',
+    from_name        varchar(100)  null comment '发送者昵称',
+    to_account       varchar(100)  not null comment '接收者账号',
+    to_name          varchar(100)  null comment '接收者昵称',
+    text             varchar(4000) not null comment '消息内容',
+    avatar           varchar(500)  null comment '发送者头像',
+    send_time        bigint        not null comment '发送时间(毫秒时间戳)',
+    delivered        tinyint       not null default 0 comment '是否已送达(1已送达,0未送达)'
+) comment '聊天消息';
+
+-- 会话历史: where conversation_key = ? order by send_time desc
+create index idx_chat_message_conversation_time on chat_message (conversation_key, send_time);
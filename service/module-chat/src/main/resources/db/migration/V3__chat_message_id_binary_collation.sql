@@ -0,0 +1,3 @@
+-- 同一毫秒的消息按id排序,和环、分段日志一样按字符逐个比较(见MessageOrder),不能用忽略大小写的默认排序规则
+alter table chat_message
+    modify id varchar(64) character set utf8mb4 collate utf8mb4_bin not null comment '消息ID';
@@ -0,0 +1,138 @@
+package xyz.Brownie.component;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import xyz.Brownie.component.NettyWebSocketServer.Message;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 出站编码的耗时和分配: 原来的Hutool JSONObject -> JSONUtil.toJsonStr -> TextWebSocketFrame(String),
+ * 对比ChatFrameEncoder直接写进池化ByteBuf;broadcast*模拟上线事件群发给recipients个连接
+ * <p>
+ * 不在surefire里跑,手动执行main(带GC profiler,看gc.alloc.rate.norm每次操作分配的字节数):
+ * <pre>
+ * mvn -pl service/module-chat test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp service/module-chat/target/test-classes:service/module-chat/target/classes:$(cat service/module-chat/target/cp.txt) \
+ *     xyz.Brownie.component.ChatFrameEncoderBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatFrameEncoderBenchmark {
+
+    private static final ByteBufAllocator ALLOCATOR = PooledByteBufAllocator.DEFAULT;
+
+    @Param({"100"})
+    public int recipients;
+
+    private final Message message = new Message("alice-1700000000123-1a2b3c4d", "alice", "Alice", "bob", "Bob",
+            "晚上一起吃饭吗? 七点在老地方见", 1700000000123L, false, "https://cdn.example.com/avatar/alice.png");
+
+    @Benchmark
+    public void hutoolMessage(Blackhole blackhole) {
+        release(new TextWebSocketFrame(JSONUtil.toJsonStr(hutool(message))), blackhole);
+    }
+
+    @Benchmark
+    public void encoderJsonMessage(Blackhole blackhole) {
+        ByteBuf content = ChatFrameEncoder.encode(ChatProtocol.JSON, ALLOCATOR,
+                generator -> ChatFrameEncoder.writeMessage(generator, message));
+        release(ChatProtocol.JSON.frame(content), blackhole);
+    }
+
+    @Benchmark
+    public void encoderCborMessage(Blackhole blackhole) {
+        ByteBuf content = ChatFrameEncoder.encode(ChatProtocol.CBOR, ALLOCATOR,
+                generator -> ChatFrameEncoder.writeMessage(generator, message));
+        release(ChatProtocol.CBOR.frame(content), blackhole);
+    }
+
+    // 原来群发: 拼一次字符串,每个连接各自new TextWebSocketFrame(String),各拷贝一份
+    @Benchmark
+    public void hutoolBroadcast(Blackhole blackhole) {
+        String text = JSONUtil.toJsonStr(presence());
+        for (int i = 0; i < recipients; i++) {
+            release(new TextWebSocketFrame(text), blackhole);
+        }
+    }
+
+    // 现在群发: 编码一次,每个连接retainedDuplicate()共享同一块内存
+    @Benchmark
+    public void encoderBroadcast(Blackhole blackhole) {
+        ByteBuf event = ChatFrameEncoder.encode(ChatProtocol.JSON, ALLOCATOR, generator -> {
+            generator.writeStartObject();
+            generator.writeStringField("type", "userOnline");
+            generator.writeStringField("account", "alice");
+            generator.writeStringField("name", "Alice");
+            generator.writeEndObject();
+        });
+        try {
+            for (int i = 0; i < recipients; i++) {
+                release(ChatProtocol.JSON.frame(event.retainedDuplicate()), blackhole);
+            }
+        } finally {
+            event.release();
+        }
+    }
+
+    // 写进Channel后由Netty释放,这里直接释放
+    private static void release(WebSocketFrame frame, Blackhole blackhole) {
+        blackhole.consume(frame.content().readableBytes());
+        frame.release();
+    }
+
+    // 和原来NettyWebSocketServer.convertMessageToJson一样
+    private static JSONObject hutool(Message message) {
+        JSONObject json = new JSONObject();
+        json.put("id", message.getId());
+        json.put("from", message.getFrom());
+        json.put("fromName", message.getFromName());
+        json.put("to", message.getTo());
+        json.put("toName", message.getToName());
+        json.put("text", message.getText());
+        json.put("timestamp", message.getTimestamp());
+        json.put("delivered", message.isDelivered());
+        json.put("avatar", message.getAvatar());
+        return json;
+    }
+
+    private static JSONObject presence() {
+        JSONObject event = new JSONObject();
+        event.put("type", "userOnline");
+        event.put("account", "alice");
+        event.put("name", "Alice");
+        return event;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ChatFrameEncoderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,150 @@
+package xyz.Brownie.component;
+
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import xyz.Brownie.component.ChatFrameEncoder.JsonBody;
+import xyz.Brownie.component.NettyWebSocketServer.Message;
+import xyz.Brownie.component.NettyWebSocketServer.Notification;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 流式编码的输出解析后要和原来Hutool JSONObject拼出来的一致,CBOR解出来也是同一棵树;
+ * 不比字节: Hutool的JSONObject默认是HashMap,字段顺序不固定,Jackson把BMP之外的字符(emoji)转义成代理对,
+ * 两者解析出来的值都一样
+ */
+class ChatFrameEncoderTest {
+
+    private static final ByteBufAllocator ALLOCATOR = UnpooledByteBufAllocator.DEFAULT;
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final ObjectMapper CBOR = new ObjectMapper(new CBORFactory());
+
+    private final Message full = new Message("m1", "alice", "Alice", "bob", "Bob",
+            "你好 \"quoted\" \\ \n emoji 😀", 1700000000123L, true, "https://cdn/a.png");
+    // 可选字段为null,Hutool默认不输出
+    private final Message sparse = new Message("m2", "bob", null, "alice", null, "hi", 1700000000456L, false, null);
+    private final Notification notification = new Notification("n1", "alice", "Alice", "新消息", 1700000000789L, "https://cdn/a.png");
+
+    @Test
+    void messageMatchesHutool() throws Exception {
+        assertSame(hutool(full), generator -> ChatFrameEncoder.writeMessage(generator, full));
+        assertSame(hutool(sparse), generator -> ChatFrameEncoder.writeMessage(generator, sparse));
+    }
+
+    @Test
+    void historyMatchesHutool() throws Exception {
+        List<Message> messages = Arrays.asList(full, sparse);
+        JSONArray array = new JSONArray();
+        messages.forEach(message -> array.add(hutool(message)));
+        JSONObject expected = new JSONObject();
+        expected.put("type", "history");
+        expected.put("messages", array);
+        expected.put("hasMore", true);
+
+        assertSame(expected, generator -> {
+            generator.writeStartObject();
+            generator.writeStringField("type", "history");
+            generator.writeArrayFieldStart("messages");
+            for (Message message : messages) {
+                ChatFrameEncoder.writeMessage(generator, message);
+            }
+            generator.writeEndArray();
+            generator.writeBooleanField("hasMore", true);
+            generator.writeEndObject();
+        });
+    }
+
+    @Test
+    void notificationAlertMatchesHutool() throws Exception {
+        JSONObject notificationJson = new JSONObject();
+        notificationJson.put("id", notification.getId());
+        notificationJson.put("from", notification.getFrom());
+        notificationJson.put("fromName", notification.getFromName());
+        notificationJson.put("text", notification.getText());
+        notificationJson.put("timestamp", notification.getTimestamp());
+        JSONObject expected = new JSONObject();
+        expected.put("type", "newNotification");
+        expected.put("notification", notificationJson);
+        expected.put("message", hutool(full));
+
+        assertSame(expected, generator -> {
+            generator.writeStartObject();
+            generator.writeStringField("type", "newNotification");
+            generator.writeFieldName("notification");
+            ChatFrameEncoder.writeNotification(generator, notification);
+            generator.writeFieldName("message");
+            ChatFrameEncoder.writeMessage(generator, full);
+            generator.writeEndObject();
+        });
+    }
+
+    @Test
+    void transcodeToCborKeepsTheTree() throws Exception {
+        String text = hutool(full).toString();
+        ByteBuf json = Unpooled.copiedBuffer(text, StandardCharsets.UTF_8);
+        ByteBuf cbor = ChatFrameEncoder.transcode(ALLOCATOR, json, ChatProtocol.CBOR);
+        try {
+            assertEquals(JSON.readTree(text), CBOR.readTree(ByteBufUtil.getBytes(cbor)));
+            // 原buffer的读位置不动,群发时还要给别的连接用
+            assertEquals(0, json.readerIndex());
+        } finally {
+            cbor.release();
+            json.release();
+        }
+    }
+
+    @Test
+    void transcodeToJsonIsByteForByte() {
+        String text = hutool(sparse).toString();
+        ByteBuf json = Unpooled.copiedBuffer(text, StandardCharsets.UTF_8);
+        ByteBuf copy = ChatFrameEncoder.transcode(ALLOCATOR, json, ChatProtocol.JSON);
+        try {
+            assertEquals(text, copy.toString(StandardCharsets.UTF_8));
+        } finally {
+            copy.release();
+            json.release();
+        }
+    }
+
+    // JSON和CBOR解码后都和Hutool的输出是同一棵树
+    private static void assertSame(JSONObject expected, JsonBody body) throws Exception {
+        JsonNode tree = JSON.readTree(expected.toString());
+        ByteBuf json = ChatFrameEncoder.encode(ChatProtocol.JSON, ALLOCATOR, body);
+        ByteBuf cbor = ChatFrameEncoder.encode(ChatProtocol.CBOR, ALLOCATOR, body);
+        try {
+            assertEquals(tree, JSON.readTree(ByteBufUtil.getBytes(json)));
+            assertEquals(tree, CBOR.readTree(ByteBufUtil.getBytes(cbor)));
+        } finally {
+            json.release();
+            cbor.release();
+        }
+    }
+
+    // 和原来NettyWebSocketServer.convertMessageToJson一样
+    private static JSONObject hutool(Message message) {
+        JSONObject json = new JSONObject();
+        json.put("id", message.getId());
+        json.put("from", message.getFrom());
+        json.put("fromName", message.getFromName());
+        json.put("to", message.getTo());
+        json.put("toName", message.getToName());
+        json.put("text", message.getText());
+        json.put("timestamp", message.getTimestamp());
+        json.put("delivered", message.isDelivered());
+        json.put("avatar", message.getAvatar());
+        return json;
+    }
+}
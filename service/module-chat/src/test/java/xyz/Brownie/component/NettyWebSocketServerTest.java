@@ -0,0 +1,233 @@
+package xyz.Brownie.component;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.EmptyHttpHeaders;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketClientProtocolHandler;
+import io.netty.handler.codec.http.websocketx.WebSocketClientProtocolHandler.ClientHandshakeStateEvent;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import xyz.Brownie.component.store.ConversationHistory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 真实端口上启动服务: 传输选择、SO_REUSEPORT多监听,以及大量空闲连接不占用池化内存;
+ * 另外写出失败时帧内容要释放回内存池
+ */
+class NettyWebSocketServerTest {
+
+    // 沙箱里文件描述符上限是2万,客户端和服务端各占一个,取一个留足余量的数
+    private static final int IDLE_CONNECTIONS = 5_000;
+    // 空闲连接不应持有读写缓冲区;每个连接哪怕只留住一个8KB的页,5000个也要40MB
+    private static final long MAX_IDLE_DIRECT_MEMORY_GROWTH = 32L * 1024 * 1024;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private NettyWebSocketServer server;
+    private EventLoopGroup clientGroup;
+
+    @BeforeEach
+    void setUp() {
+        clientGroup = new NioEventLoopGroup(1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+        clientGroup.shutdownGracefully(0, TIMEOUT_SECONDS, TimeUnit.SECONDS).syncUninterruptibly();
+        NettyWebSocketServer.userConnections.clear();
+        ((AtomicInteger) ReflectionTestUtils.getField(NettyWebSocketServer.class, "onlineCount")).set(0);
+    }
+
+    @Test
+    void fallsBackToNioWhenEpollIsDisabled() throws Exception {
+        int port = start(false, false, 1);
+
+        List<Channel> listeners = serverChannels();
+        assertEquals(1, listeners.size());
+        assertTrue(listeners.get(0) instanceof NioServerSocketChannel);
+        assertRegisters(port, "alice");
+    }
+
+    @Test
+    void epollWithReusePortBindsOneListenerPerAcceptor() throws Exception {
+        assumeTrue(Epoll.isAvailable(), "epoll不可用");
+        int port = start(true, true, 2);
+
+        List<Channel> listeners = serverChannels();
+        assertEquals(2, listeners.size());
+        for (Channel listener : listeners) {
+            assertTrue(listener instanceof EpollServerSocketChannel);
+            assertEquals(port, ((InetSocketAddress) listener.localAddress()).getPort());
+        }
+        assertRegisters(port, "alice");
+    }
+
+    @Test
+    void reusePortIsIgnoredWithoutEpoll() throws Exception {
+        start(false, true, 4);
+        assertEquals(1, serverChannels().size());
+    }
+
+    @Test
+    void holdsIdleConnectionsWithoutPinningPooledMemory() throws Exception {
+        int port = start(true, false, 1);
+        // 先走一遍完整收发,让内存池分配好初始的chunk,之后的增长才是空闲连接造成的
+        assertRegisters(port, "warmup");
+        long before = PooledByteBufAllocator.DEFAULT.metric().usedDirectMemory();
+
+        List<Channel> idle = new ArrayList<>(IDLE_CONNECTIONS);
+        for (int i = 0; i < IDLE_CONNECTIONS; i++) {
+            idle.add(connect(port, null));
+        }
+        long growth = PooledByteBufAllocator.DEFAULT.metric().usedDirectMemory() - before;
+
+        assertTrue(growth < MAX_IDLE_DIRECT_MEMORY_GROWTH,
+                IDLE_CONNECTIONS + "个空闲连接占用池化直接内存" + growth / 1024 + "KB");
+        // 空闲连接都还在,服务照常响应新连接
+        assertRegisters(port, "alice");
+        for (Channel channel : idle) {
+            assertTrue(channel.isActive());
+        }
+    }
+
+    @Test
+    void failedWriteReleasesFrameContent() {
+        // 不用启动服务,直接调用发送
+        NettyWebSocketServer unstarted = new NettyWebSocketServer();
+        ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
+        when(ctx.channel()).thenReturn(new EmbeddedChannel());
+        when(ctx.writeAndFlush(any())).thenThrow(new IllegalStateException("写出失败"));
+        ByteBuf content = PooledByteBufAllocator.DEFAULT.directBuffer().writeBytes("{}".getBytes(StandardCharsets.UTF_8));
+
+        ReflectionTestUtils.invokeMethod(unstarted, "sendFrame", content, ctx);
+        assertEquals(0, content.refCnt());
+    }
+
+    private int start(boolean epoll, boolean reusePort, int acceptors) throws Exception {
+        PresenceService presenceService = mock(PresenceService.class);
+        when(presenceService.audience(anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(Collections.emptyList()));
+        when(presenceService.page(any(), any(), anyInt(), any()))
+                .thenReturn(CompletableFuture.completedFuture(Collections.emptyList()));
+
+        int port = freePort();
+        server = new NettyWebSocketServer();
+        ReflectionTestUtils.setField(server, "presenceService", presenceService);
+        ReflectionTestUtils.setField(server, "conversationHistory", mock(ConversationHistory.class));
+        ReflectionTestUtils.setField(server, "port", port);
+        ReflectionTestUtils.setField(server, "epollEnabled", epoll);
+        ReflectionTestUtils.setField(server, "workerThreads", 1);
+        ReflectionTestUtils.setField(server, "backlog", 1024);
+        ReflectionTestUtils.setField(server, "reusePort", reusePort);
+        ReflectionTestUtils.setField(server, "acceptors", acceptors);
+        ReflectionTestUtils.setField(server, "writeBufferLowWaterMark", 32 * 1024);
+        ReflectionTestUtils.setField(server, "writeBufferHighWaterMark", 64 * 1024);
+        ReflectionTestUtils.setField(server, "pooledDirectAllocator", true);
+        server.start();
+        return port;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Channel> serverChannels() {
+        return (List<Channel>) ReflectionTestUtils.getField(server, "serverChannels");
+    }
+
+    private void assertRegisters(int port, String account) throws Exception {
+        BlockingQueue<String> frames = new LinkedBlockingQueue<>();
+        Channel channel = connect(port, frames);
+        channel.writeAndFlush(new TextWebSocketFrame("{\"type\":\"register\",\"account\":\"" + account + "\"}")).sync();
+
+        String frame;
+        do {
+            frame = frames.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull(frame, "没有收到注册应答");
+        } while (!frame.contains("registerResponse"));
+        assertTrue(NettyWebSocketServer.userConnections.containsKey(account));
+        channel.close().sync();
+    }
+
+    // 完成WebSocket握手后返回,frames为null时不收消息
+    private Channel connect(int port, BlockingQueue<String> frames) throws Exception {
+        CompletableFuture<Void> handshake = new CompletableFuture<>();
+        Bootstrap bootstrap = new Bootstrap()
+                .group(clientGroup)
+                .channel(NioSocketChannel.class)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new HttpClientCodec());
+                        ch.pipeline().addLast(new HttpObjectAggregator(64 * 1024));
+                        ch.pipeline().addLast(new WebSocketClientProtocolHandler(WebSocketClientHandshakerFactory.newHandshaker(
+                                URI.create("ws://127.0.0.1:" + port + "/imserver"), WebSocketVersion.V13,
+                                "chat.json", false, EmptyHttpHeaders.INSTANCE)));
+                        ch.pipeline().addLast(new SimpleChannelInboundHandler<TextWebSocketFrame>() {
+                            @Override
+                            protected void channelRead0(ChannelHandlerContext ctx, TextWebSocketFrame frame) {
+                                if (frames != null) {
+                                    frames.add(frame.text());
+                                }
+                            }
+
+                            @Override
+                            public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+                                if (evt == ClientHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+                                    handshake.complete(null);
+                                } else if (evt == ClientHandshakeStateEvent.HANDSHAKE_TIMEOUT) {
+                                    handshake.completeExceptionally(new IllegalStateException("WebSocket握手超时"));
+                                }
+                                super.userEventTriggered(ctx, evt);
+                            }
+                        });
+                    }
+                });
+        Channel channel = bootstrap.connect("127.0.0.1", port).sync().channel();
+        handshake.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        return channel;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package xyz.Brownie.component;
+
+import cn.hutool.json.JSONObject;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import xyz.Brownie.component.store.ConversationHistory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 注册和断开: 账号绑在Channel属性上,断开时不扫描userConnections;旧连接晚断开不能踢掉新连接
+ */
+class WebSocketFrameHandlerTest {
+
+    private static final int CLIENTS = 50_000;
+    // 5万人同时在线时的断开耗时和只有一人在线时相比的上限;逐个扫描userConnections时要做十几亿次比较,会远超这个倍数
+    private static final int MAX_SLOWDOWN = 3;
+
+    private NettyWebSocketServer server;
+    private PresenceService presenceService;
+
+    @BeforeEach
+    void setUp() {
+        presenceService = mock(PresenceService.class);
+        setUp(presenceService, mock(ConversationHistory.class));
+    }
+
+    private void setUp(PresenceService presence, ConversationHistory history) {
+        when(presence.audience(anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(Collections.emptyList()));
+        when(presence.page(any(), any(), anyInt(), any()))
+                .thenReturn(CompletableFuture.completedFuture(Collections.emptyList()));
+        server = new NettyWebSocketServer();
+        ReflectionTestUtils.setField(server, "presenceService", presence);
+        ReflectionTestUtils.setField(server, "conversationHistory", history);
+    }
+
+    @AfterEach
+    void tearDown() {
+        NettyWebSocketServer.userConnections.clear();
+        onlineCounter().set(0);
+    }
+
+    @Test
+    void disconnectRemovesTheRegisteredAccount() {
+        EmbeddedChannel channel = connect("alice");
+        assertTrue(NettyWebSocketServer.userConnections.containsKey("alice"));
+
+        channel.finishAndReleaseAll();
+        assertFalse(NettyWebSocketServer.userConnections.containsKey("alice"));
+        assertEquals(0, onlineCount());
+        // 上线一次,下线一次
+        verify(presenceService, times(2)).audience(eq("alice"), any());
+    }
+
+    @Test
+    void staleChannelDoesNotEvictNewerConnection() {
+        EmbeddedChannel old = connect("alice");
+        EmbeddedChannel reconnected = connect("alice");
+        assertEquals(1, onlineCount());
+
+        old.finishAndReleaseAll();
+        assertSame(reconnected, NettyWebSocketServer.userConnections.get("alice").getCtx().channel());
+        assertEquals(1, onlineCount());
+
+        reconnected.finishAndReleaseAll();
+        assertFalse(NettyWebSocketServer.userConnections.containsKey("alice"));
+        assertEquals(0, onlineCount());
+    }
+
+    @Test
+    void reRegisteringUnderAnotherAccountReleasesThePreviousOne() {
+        EmbeddedChannel channel = connect("alice");
+        register(channel, "bob");
+        assertFalse(NettyWebSocketServer.userConnections.containsKey("alice"));
+        assertTrue(NettyWebSocketServer.userConnections.containsKey("bob"));
+        assertEquals(1, onlineCount());
+
+        channel.finishAndReleaseAll();
+        assertTrue(NettyWebSocketServer.userConnections.isEmpty());
+        assertEquals(0, onlineCount());
+    }
+
+    @Test
+    void unregisteredChannelDisconnectsQuietly() {
+        EmbeddedChannel channel = new EmbeddedChannel(server.new WebSocketFrameHandler());
+        connect("alice");
+
+        channel.finishAndReleaseAll();
+        assertTrue(NettyWebSocketServer.userConnections.containsKey("alice"));
+        assertEquals(1, onlineCount());
+    }
+
+    @Test
+    void massDisconnectDoesNotScanOnlineUsers() {
+        // 不记录调用,否则计时里大半是Mockito的开销
+        setUp(mock(PresenceService.class, withSettings().stubOnly()), mock(ConversationHistory.class, withSettings().stubOnly()));
+
+        // 基准: 同样多次断开,每次只有一个人在线,顺带预热
+        long alone = 0;
+        for (int i = 0; i < CLIENTS; i++) {
+            EmbeddedChannel channel = connect("user" + i);
+            long start = System.nanoTime();
+            channel.close();
+            alone += System.nanoTime() - start;
+        }
+        assertEquals(0, onlineCount());
+
+        List<EmbeddedChannel> channels = new ArrayList<>(CLIENTS);
+        for (int i = 0; i < CLIENTS; i++) {
+            channels.add(connect("user" + i));
+        }
+        assertEquals(CLIENTS, onlineCount());
+        // 打乱断开顺序,逐个扫描时平均要走一半的表
+        Collections.shuffle(channels, new Random(1));
+
+        long start = System.nanoTime();
+        for (EmbeddedChannel channel : channels) {
+            channel.close();
+        }
+        long together = System.nanoTime() - start;
+
+        assertTrue(NettyWebSocketServer.userConnections.isEmpty());
+        assertEquals(0, onlineCount());
+        assertTrue(together < alone * MAX_SLOWDOWN, String.format("%d个连接断开耗时%dms,只有一人在线时%dms",
+                CLIENTS, TimeUnit.NANOSECONDS.toMillis(together), TimeUnit.NANOSECONDS.toMillis(alone)));
+        channels.forEach(EmbeddedChannel::releaseOutbound);
+    }
+
+    private EmbeddedChannel connect(String account) {
+        EmbeddedChannel channel = new EmbeddedChannel(server.new WebSocketFrameHandler());
+        register(channel, account);
+        return channel;
+    }
+
+    private static void register(EmbeddedChannel channel, String account) {
+        JSONObject register = new JSONObject();
+        register.put("type", "register");
+        register.put("account", account);
+        channel.writeInbound(register);
+        channel.runPendingTasks();
+        // 只关心连接表,注册应答直接丢掉
+        channel.releaseOutbound();
+    }
+
+    private static int onlineCount() {
+        return onlineCounter().get();
+    }
+
+    private static AtomicInteger onlineCounter() {
+        return (AtomicInteger) ReflectionTestUtils.getField(NettyWebSocketServer.class, "onlineCount");
+    }
+}
@@ -0,0 +1,105 @@
+package xyz.Brownie.component.store;
+
+import org.junit.jupiter.api.Test;
+import xyz.Brownie.component.NettyWebSocketServer.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static xyz.Brownie.component.store.SegmentedLogMessageStoreTest.ids;
+import static xyz.Brownie.component.store.SegmentedLogMessageStoreTest.message;
+
+class ConversationRingTest {
+
+    @Test
+    void tailReturnsNewestFirst() {
+        ConversationRing ring = ConversationRing.seed(5, Collections.emptyList());
+        ring.push(message("m1", "a", "b", 1));
+        ring.push(message("m2", "a", "b", 2));
+        ring.push(message("m3", "a", "b", 3));
+        assertEquals(Arrays.asList("m3", "m2"), ids(ring.tail(2)));
+    }
+
+    @Test
+    void completeRingAnswersAnyLimit() {
+        ConversationRing ring = ConversationRing.seed(5, newestFirst(3));
+        assertEquals(Arrays.asList("m2", "m1", "m0"), ids(ring.tail(100)));
+        assertEquals(Arrays.asList("m1", "m0"), ids(ring.before(2, "m2", 100)));
+    }
+
+    @Test
+    void incompleteRingDefersToStoreWhenItCannotFillThePage() {
+        // 装载时正好装满,说明存储里可能还有更早的
+        ConversationRing ring = ConversationRing.seed(3, newestFirst(3));
+        assertNull(ring.tail(4));
+        assertEquals(Arrays.asList("m2", "m1", "m0"), ids(ring.tail(3)));
+        assertNull(ring.before(2, "m2", 3));
+        assertEquals(Collections.singletonList("m1"), ids(ring.before(2, "m2", 1)));
+    }
+
+    @Test
+    void pushIntoFullRingEvictsOldest() {
+        ConversationRing ring = ConversationRing.seed(3, Collections.emptyList());
+        for (int i = 0; i < 5; i++) {
+            ring.push(message("m" + i, "a", "b", i));
+        }
+        assertEquals(Arrays.asList("m4", "m3", "m2"), ids(ring.tail(3)));
+        assertNull(ring.tail(4));
+    }
+
+    @Test
+    void lateArrivalIsInsertedInOrder() {
+        ConversationRing ring = ConversationRing.seed(5, Collections.emptyList());
+        ring.push(message("m1", "a", "b", 10));
+        ring.push(message("m3", "a", "b", 30));
+        ring.push(message("m2", "a", "b", 20));
+        assertEquals(Arrays.asList("m3", "m2", "m1"), ids(ring.tail(3)));
+    }
+
+    @Test
+    void lateArrivalOlderThanFullRingIsNotAdmitted() {
+        ConversationRing ring = ConversationRing.seed(2, Collections.emptyList());
+        ring.push(message("m2", "a", "b", 20));
+        ring.push(message("m3", "a", "b", 30));
+        ring.push(message("m1", "a", "b", 10));
+        assertEquals(Arrays.asList("m3", "m2"), ids(ring.tail(2)));
+    }
+
+    @Test
+    void sameMillisecondUsesIdOrderLikeTheStores() {
+        ConversationRing ring = ConversationRing.seed(10, Collections.emptyList());
+        ring.push(message("c", "a", "b", 10));
+        ring.push(message("a", "a", "b", 10));
+        ring.push(message("b", "a", "b", 10));
+        ring.push(message("d", "a", "b", 9));
+        assertEquals(Arrays.asList("c", "b", "a", "d"), ids(ring.tail(10)));
+        assertEquals(Arrays.asList("a", "d"), ids(ring.before(10, "b", 10)));
+        // 游标不在环里也能按(时间, id)切
+        assertEquals(Arrays.asList("b", "a", "d"), ids(ring.before(10, "bz", 10)));
+        // 只按时间
+        assertEquals(Collections.singletonList("d"), ids(ring.before(10, null, 10)));
+    }
+
+    @Test
+    void markDeliveredUpdatesMatchingMessages() {
+        ConversationRing ring = ConversationRing.seed(5, newestFirst(3));
+        ring.markDelivered(new HashSet<>(Arrays.asList("m0", "m2")));
+        List<Message> messages = ring.tail(3);
+        assertTrue(messages.get(0).isDelivered());
+        assertFalse(messages.get(1).isDelivered());
+        assertTrue(messages.get(2).isDelivered());
+    }
+
+    // m0..m(n-1),新的在前,和MessageStore.latest的顺序一致
+    private static List<Message> newestFirst(int n) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = n - 1; i >= 0; i--) {
+            messages.add(message("m" + i, "a", "b", i));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,340 @@
+package xyz.Brownie.component.store;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.Brownie.component.NettyWebSocketServer.Message;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentedLogMessageStoreTest {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private SegmentedLogMessageStore store;
+
+    @AfterEach
+    void tearDown() {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    @Test
+    void latestReturnsNewestFirstPerConversation() throws IOException {
+        store = open();
+        store.append(message("m1", "a", "b", 100));
+        store.append(message("m2", "b", "a", 200));
+        store.append(message("x1", "a", "c", 150));
+        store.append(message("m3", "a", "b", 300));
+
+        assertEquals(Arrays.asList("m3", "m2", "m1"), ids(store.latest("a", "b", 10)));
+        assertEquals(Arrays.asList("m3", "m2"), ids(store.latest("b", "a", 2)));
+        assertEquals(Collections.singletonList("x1"), ids(store.latest("c", "a", 10)));
+        assertTrue(store.latest("a", "z", 10).isEmpty());
+    }
+
+    @Test
+    void cursorPagingWalksTheWholeConversationOnce() throws IOException {
+        store = open();
+        for (int i = 0; i < 25; i++) {
+            store.append(message(String.format("m%02d", i), "a", "b", 1000 + i));
+        }
+        List<String> seen = new ArrayList<>();
+        List<Message> page = store.latest("a", "b", 10);
+        while (!page.isEmpty()) {
+            seen.addAll(ids(page));
+            Message last = page.get(page.size() - 1);
+            page = store.before("a", "b", last.getTimestamp(), last.getId(), 10);
+        }
+        assertEquals(25, seen.size());
+        assertEquals("m24", seen.get(0));
+        assertEquals("m00", seen.get(24));
+
+        assertEquals(Arrays.asList("m21", "m22"), ids(store.after("a", "b", 1020, "m20", 2)));
+        assertEquals(Arrays.asList("m04", "m03"), ids(store.before("a", "b", 1005, null, 2)));
+        assertEquals(Arrays.asList("m06", "m07"), ids(store.after("a", "b", 1005, null, 2)));
+    }
+
+    @Test
+    void sameMillisecondMessagesAreOrderedByIdNotArrival() throws IOException {
+        store = open();
+        store.append(message("c", "a", "b", 10));
+        store.append(message("a", "a", "b", 10));
+        store.append(message("b", "a", "b", 10));
+        store.append(message("d", "a", "b", 9));
+
+        assertEquals(Arrays.asList("c", "b", "a", "d"), ids(store.latest("a", "b", 10)));
+        assertEquals(Arrays.asList("a", "d"), ids(store.before("a", "b", 10, "b", 10)));
+        assertEquals(Collections.singletonList("c"), ids(store.after("a", "b", 10, "b", 10)));
+        // 游标那条已被删除或不存在时也按(时间, id)切
+        assertEquals(Arrays.asList("b", "a", "d"), ids(store.before("a", "b", 10, "bz", 10)));
+    }
+
+    @Test
+    void deleteTombstoneSurvivesReopen() throws IOException {
+        store = open();
+        store.append(message("m1", "a", "b", 100));
+        store.append(message("m2", "a", "b", 200));
+        store.append(message("x1", "a", "c", 150));
+        assertEquals(2, store.deleteConversation("b", "a"));
+        store.append(message("m3", "a", "b", 300));
+        store.close();
+
+        store = open();
+        assertEquals(Collections.singletonList("m3"), ids(store.latest("a", "b", 10)));
+        assertEquals(Collections.singletonList("x1"), ids(store.latest("a", "c", 10)));
+    }
+
+    @Test
+    void replayAfterReopenRestoresIndexAndAppendsAfterExistingRecords() throws IOException {
+        store = open();
+        store.append(message("m1", "a", "b", 100, "你好"));
+        store.append(message("m2", "b", "a", 200, null));
+        store.close();
+
+        store = open();
+        store.append(message("m3", "a", "b", 300, "again"));
+        store.close();
+
+        store = open();
+        List<Message> messages = store.latest("a", "b", 10);
+        assertEquals(Arrays.asList("m3", "m2", "m1"), ids(messages));
+        Message first = messages.get(2);
+        assertEquals("你好", first.getText());
+        assertEquals("a", first.getFrom());
+        assertEquals("b", first.getTo());
+        assertEquals(100, first.getTimestamp());
+        assertNull(messages.get(1).getText());
+    }
+
+    @Test
+    void rollsToNewSegmentsAndReadsAcrossThemAfterReopen() throws IOException {
+        store = open();
+        String text = String.join("", Collections.nCopies(1000, "x"));
+        for (int i = 0; i < 200; i++) {
+            store.append(message(String.format("m%03d", i), "a", "b", i, text));
+        }
+        store.close();
+        assertTrue(segmentFiles().size() > 1);
+
+        store = open();
+        List<Message> all = store.latest("a", "b", 500);
+        assertEquals(200, all.size());
+        assertEquals("m199", all.get(0).getId());
+        assertEquals("m000", all.get(199).getId());
+    }
+
+    @Test
+    void markDeliveredIsPersisted() throws IOException {
+        store = open();
+        Message m1 = message("m1", "a", "b", 100);
+        Message m2 = message("m2", "a", "b", 200);
+        store.append(m1);
+        store.append(m2);
+        assertEquals(1, store.markDelivered("a", "b", Collections.singletonList(m2)));
+        assertEquals(0, store.markDelivered("a", "b", Collections.singletonList(m2)));
+        store.close();
+
+        store = open();
+        List<Message> messages = store.latest("a", "b", 10);
+        assertTrue(messages.get(0).isDelivered());
+        assertFalse(messages.get(1).isDelivered());
+    }
+
+    @Test
+    void corruptRecordTruncatesLogAndKeepsGoodPrefix() throws IOException {
+        store = open();
+        store.append(message("m1", "a", "b", 100));
+        store.append(message("m2", "a", "b", 200));
+        store.append(message("m3", "a", "b", 300));
+        store.close();
+
+        // 改坏第二条记录内容里的一个字节,CRC对不上
+        Path segment = segmentFiles().get(0);
+        int secondRecord = recordLength(segment, 0) + 8;
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(secondRecord + 8 + 20);
+            file.write(file.read() ^ 0xff);
+        }
+
+        store = open();
+        assertEquals(Collections.singletonList("m1"), ids(store.latest("a", "b", 10)));
+        store.append(message("m4", "a", "b", 400));
+        store.close();
+
+        store = open();
+        assertEquals(Arrays.asList("m4", "m1"), ids(store.latest("a", "b", 10)));
+    }
+
+    @Test
+    void unrelatedFilesInLogDirectoryAreSkipped() throws IOException {
+        Files.write(dir.resolve("notes.log"), new byte[]{1, 2, 3});
+        Files.write(dir.resolve("0000000000.log.bak"), new byte[]{1, 2, 3});
+        store = open();
+        store.append(message("m1", "a", "b", 100));
+        store.close();
+
+        store = open();
+        assertEquals(Collections.singletonList("m1"), ids(store.latest("a", "b", 10)));
+    }
+
+    @Test
+    void compactionRemovesDeletedConversationFromDisk() throws IOException {
+        store = open();
+        String secret = "secret-" + String.join("", Collections.nCopies(1000, "s"));
+        String text = String.join("", Collections.nCopies(1000, "x"));
+        // 两个会话交错写,占满好几个分段,每个分段里四分之三是之后要删的会话
+        for (int i = 0; i < 200; i++) {
+            if (i % 4 == 0) {
+                store.append(message(String.format("k%03d", i / 4), "a", "c", i, text));
+            } else {
+                store.append(message(String.format("s%03d", i), "a", "b", i, secret));
+            }
+        }
+        assertEquals(150, store.deleteConversation("a", "b"));
+        long before = totalSize();
+        int segmentsBefore = segmentFiles().size();
+
+        assertTrue(store.compact() > 0);
+        assertTrue(totalSize() < before, before + " -> " + totalSize());
+        for (Path segment : segmentFiles()) {
+            String content = new String(Files.readAllBytes(segment), StandardCharsets.UTF_8);
+            // 只有还在写的最后一个分段不压缩
+            if (!segment.equals(segmentFiles().get(segmentFiles().size() - 1))) {
+                assertFalse(content.contains("secret-"), segment.toString());
+            }
+        }
+        assertEquals(segmentsBefore, segmentFiles().size());
+        // 位置已换成新文件里的偏移,读取和改送达标记都照常
+        List<Message> kept = store.latest("a", "c", 500);
+        assertEquals(50, kept.size());
+        assertEquals("k049", kept.get(0).getId());
+        assertEquals("k000", kept.get(49).getId());
+        assertEquals(1, store.markDelivered("a", "c", Collections.singletonList(kept.get(49))));
+        store.close();
+
+        store = open();
+        assertTrue(store.latest("a", "b", 10).isEmpty());
+        kept = store.latest("a", "c", 500);
+        assertEquals(50, kept.size());
+        assertTrue(kept.get(49).isDelivered());
+        // 再压缩没有可做的
+        assertEquals(0, store.compact());
+    }
+
+    @Test
+    void segmentsWithOnlyDeletedMessagesAreRemoved() throws IOException {
+        store = open();
+        String text = String.join("", Collections.nCopies(1000, "x"));
+        for (int i = 0; i < 200; i++) {
+            store.append(message(String.format("m%03d", i), "a", "b", i, text));
+        }
+        int segmentsBefore = segmentFiles().size();
+        store.deleteConversation("a", "b");
+
+        store.compact();
+        // 只剩还在写的分段
+        assertTrue(segmentFiles().size() < segmentsBefore);
+        assertEquals(1, segmentFiles().size());
+        store.append(message("n1", "a", "b", 1000));
+        store.close();
+
+        store = open();
+        assertEquals(Collections.singletonList("n1"), ids(store.latest("a", "b", 10)));
+    }
+
+    @Test
+    void tombstoneIsKeptWhileAnEarlierSegmentHoldsTheConversation() throws IOException {
+        store = open();
+        String text = String.join("", Collections.nCopies(1000, "x"));
+        // 第一个分段: a-b一条,其余是一直保留的a-c,不满足压缩条件
+        store.append(message("old", "a", "b", 1, text));
+        while (segmentFiles().size() < 2) {
+            store.append(message("k" + System.nanoTime(), "a", "c", 2, text));
+        }
+        // 第二个分段: 删除a-b的记录,加上之后被整个删掉的d-e
+        store.deleteConversation("a", "b");
+        int segments = segmentFiles().size();
+        while (segmentFiles().size() == segments) {
+            store.append(message("d" + System.nanoTime(), "d", "e", 3, text));
+        }
+        store.deleteConversation("d", "e");
+
+        store.compact();
+        store.close();
+
+        store = open();
+        assertTrue(store.latest("a", "b", 10).isEmpty());
+        assertTrue(store.latest("d", "e", 10).isEmpty());
+        assertFalse(store.latest("a", "c", 10).isEmpty());
+    }
+
+    @Test
+    void leftoverCompactionFileIsDiscardedOnOpen() throws IOException {
+        store = open();
+        store.append(message("m1", "a", "b", 100));
+        store.close();
+        Files.write(dir.resolve("0000000000.log.compact"), new byte[]{1, 2, 3});
+
+        store = open();
+        assertEquals(Collections.singletonList("m1"), ids(store.latest("a", "b", 10)));
+        assertFalse(Files.exists(dir.resolve("0000000000.log.compact")));
+    }
+
+    private long totalSize() throws IOException {
+        long total = 0;
+        for (Path segment : segmentFiles()) {
+            total += Files.size(segment);
+        }
+        return total;
+    }
+
+    private SegmentedLogMessageStore open() throws IOException {
+        SegmentedLogMessageStore opened = new SegmentedLogMessageStore(dir.toString(), SEGMENT_SIZE, 60_000, 600_000);
+        opened.open();
+        return opened;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().matches("\\d{10}\\.log"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static int recordLength(Path segment, int offset) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "r")) {
+            file.seek(offset);
+            return file.readInt();
+        }
+    }
+
+    static Message message(String id, String from, String to, long timestamp) {
+        return message(id, from, to, timestamp, "text of " + id);
+    }
+
+    static Message message(String id, String from, String to, long timestamp, String text) {
+        return new Message(id, from, from + "-name", to, to + "-name", text, timestamp, false, null);
+    }
+
+    static List<String> ids(List<Message> messages) {
+        return messages.stream().map(Message::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,23 @@
+package xyz.Brownie.client;
+
+import org.springframework.cloud.openfeign.FeignClient;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import xyz.Brownie.utils.Result;
+
+import java.util.Map;
+
+@Component
+@FeignClient("module-topic")
+@RequestMapping("/topic")
+public interface TopicClient {
+
+    /**
+     * 批量调整评论数（帖子id -> 增量，可正可负），同一batchId只会累加一次
+     */
+    @PutMapping("/adjust-comments")
+    Result adjustCommentsCount(@RequestParam("batchId") String batchId, @RequestBody Map<Long, Integer> deltas);
+}
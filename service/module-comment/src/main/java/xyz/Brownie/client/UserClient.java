@@ -5,12 +5,19 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import xyz.Brownie.bean.entity.User;
 
+import java.util.List;
+
 @Component
 @FeignClient("module-user")
 @RequestMapping("/user")
 public interface UserClient {
     @GetMapping("/{id}")
     public User getUserById(@PathVariable("id") Long id);
+
+    //批量查询用户昵称和头像
+    @GetMapping("/batch")
+    List<User> getUserByIds(@RequestParam("ids") List<Long> ids);
 }
@@ -3,10 +3,15 @@ package xyz.Brownie.controller;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
+import xyz.Brownie.constants.ResponseCode;
 import xyz.Brownie.utils.Result;
+import xyz.Brownie.utils.UserProfileCache;
 import xyz.Brownie.bean.entity.Comments;
 import xyz.Brownie.service.CommentsService;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * @author wulinxiong
  * @version 1.0
@@ -19,6 +24,17 @@ public class CommentsController {
     @Autowired
     private CommentsService commentsService;
 
+    @Autowired
+    private UserProfileCache userProfileCache;
+
+    /**
+     * 评论者资料缓存的命中率等统计
+     */
+    @GetMapping("/profile-cache/stats")
+    public Result profileCacheStats() {
+        return Result.suc(ResponseCode.Code200, userProfileCache.stats());
+    }
+
     /**
      * 查询评论
      *
@@ -32,6 +48,21 @@ public class CommentsController {
         return commentsService.commentsList(topicId, pageNum, pageSize);
     }
 
+    /**
+     * 展开根评论下的子评论,按发布时间升序游标分页
+     *
+     * @param rootId   根评论id
+     * @param cursor   上一页返回的nextCursor,或评论列表里的repliesCursor,为空从第一条开始
+     * @param pageSize 每页条数
+     * @return
+     */
+    @GetMapping("/replies/{rootId}")
+    public Result replies(@PathVariable Long rootId,
+                          @RequestParam(value = "cursor", required = false) String cursor,
+                          @RequestParam(value = "pageSize", defaultValue = "10") Integer pageSize) {
+        return commentsService.replies(rootId, cursor, pageSize);
+    }
+
     /**
      * 发表评论
      *
@@ -59,4 +90,16 @@ public class CommentsController {
         queryWrapper.eq(Comments::getTopicId,id);
         return (long) commentsService.count(queryWrapper);
     }
+
+    /**
+     * 批量查询评论数,一条group by算出整页帖子的实时评论数
+     * 帖子列表读topic表上随评论增量维护的comments字段,不调这个接口;这里给需要实时值的调用方(如核对计数)用
+     *
+     * @param topicIds 帖子id集合
+     * @return 帖子id -> 评论数
+     */
+    @GetMapping("/counts")
+    public Map<Long, Long> getCommentCounts(@RequestParam("topicIds") List<Long> topicIds) {
+        return commentsService.countByTopicIds(topicIds);
+    }
 }
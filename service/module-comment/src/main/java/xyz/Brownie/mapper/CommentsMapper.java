@@ -2,11 +2,15 @@ package xyz.Brownie.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 import xyz.Brownie.bean.entity.Comments;
 
+import java.util.List;
 
 @Mapper
 public interface CommentsMapper extends BaseMapper<Comments> {
+    //每个根评论最早的limit条子评论
+    List<Comments> selectFirstReplies(@Param("rootIds") List<Long> rootIds, @Param("limit") int limit);
 
 }
 
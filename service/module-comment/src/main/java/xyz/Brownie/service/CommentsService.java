@@ -5,6 +5,9 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import xyz.Brownie.utils.Result;
 import xyz.Brownie.bean.entity.Comments;
 
+import java.util.List;
+import java.util.Map;
+
 public interface CommentsService extends IService<Comments> {
 
     Result commentsList(Long topicId, Integer pageNum, Integer pageSize);
@@ -14,4 +17,8 @@ public interface CommentsService extends IService<Comments> {
 
     Result delComments(Long id);
 
+    Map<Long, Long> countByTopicIds(List<Long> topicIds);
+
+    Result replies(Long rootId, String cursor, Integer pageSize);
+
 }
@@ -0,0 +1,109 @@
+package xyz.Brownie.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import xyz.Brownie.bean.entity.Comments;
+import xyz.Brownie.mapper.CommentsMapper;
+
+/**
+ * 删除根评论时,子评论交给后台分批删除
+ * - 待清理的根评论放在Redis List里,服务重启也不会丢
+ * - 一个根评论处理完才从队列里移除,中途失败就挪到队尾,不挡住后面的任务;
+ *   每批只删is_delete = 0的行,重复执行不会多扣评论数
+ * - 同一个任务失败MAX_ATTEMPTS次后移进死信列表,等人工排查
+ */
+@Service
+@RequiredArgsConstructor
+public class CommentCascadeDeleteService {
+    private static final Logger log = LoggerFactory.getLogger(CommentCascadeDeleteService.class);
+
+    // 元素为"根评论id:帖子id"
+    private static final String DELETE_QUEUE_KEY = "comments:delete:queue";
+    // 任务 -> 已失败次数
+    private static final String ATTEMPTS_KEY = "comments:delete:attempts";
+    // 多次失败的任务
+    private static final String DEAD_QUEUE_KEY = "comments:delete:dead";
+    private static final int MAX_ATTEMPTS = 5;
+    // 每条update最多删除的子评论数,控制单次持锁时间
+    private static final int BATCH_SIZE = 500;
+    // 每次调度最多处理的根评论数
+    private static final int MAX_ROOTS_PER_RUN = 20;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final CommentsMapper commentsMapper;
+    private final TopicCommentCountService topicCommentCountService;
+    private final CommentPageCache commentPageCache;
+
+    public void enqueue(Long rootId, Long topicId) {
+        stringRedisTemplate.opsForList().rightPush(DELETE_QUEUE_KEY, rootId + ":" + topicId);
+    }
+
+    /**
+     * 依次清理队列里根评论的子评论,返回处理完的根评论数;失败的任务也占本次的处理名额,避免反复重试同一批
+     */
+    public int processPending() {
+        int processed = 0;
+        for (int i = 0; i < MAX_ROOTS_PER_RUN; i++) {
+            String item = stringRedisTemplate.opsForList().index(DELETE_QUEUE_KEY, 0);
+            if (item == null) {
+                break;
+            }
+            String[] parts = item.split(":");
+            try {
+                deleteChildren(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                log.warn("丢弃无效的级联删除任务: {}", item);
+            } catch (Exception e) {
+                retryLater(item, e);
+                continue;
+            }
+            // 只移除刚处理完的这一个,其它实例可能已经先移除了
+            stringRedisTemplate.opsForList().remove(DELETE_QUEUE_KEY, 1, item);
+            stringRedisTemplate.opsForHash().delete(ATTEMPTS_KEY, item);
+            processed++;
+        }
+        return processed;
+    }
+
+    // 失败的任务挪到队尾,失败次数到上限就移进死信列表
+    private void retryLater(String item, Exception e) {
+        Long attempts = stringRedisTemplate.opsForHash().increment(ATTEMPTS_KEY, item, 1);
+        // 其它实例可能已经处理完并移除了,移除成功才重新入队,避免重复
+        Long removed = stringRedisTemplate.opsForList().remove(DELETE_QUEUE_KEY, 1, item);
+        if (removed == null || removed == 0) {
+            return;
+        }
+        if (attempts != null && attempts >= MAX_ATTEMPTS) {
+            stringRedisTemplate.opsForList().rightPush(DEAD_QUEUE_KEY, item);
+            stringRedisTemplate.opsForHash().delete(ATTEMPTS_KEY, item);
+            log.error("级联删除任务{}已失败{}次，移入死信列表{}", item, attempts, DEAD_QUEUE_KEY, e);
+        } else {
+            stringRedisTemplate.opsForList().rightPush(DELETE_QUEUE_KEY, item);
+            log.warn("级联删除任务{}第{}次失败，稍后重试", item, attempts, e);
+        }
+    }
+
+    private void deleteChildren(Long rootId, Long topicId) {
+        int total = 0;
+        while (true) {
+            LambdaQueryWrapper<Comments> queryWrapper = new LambdaQueryWrapper<>();
+            queryWrapper.eq(Comments::getRootId, rootId).last("limit " + BATCH_SIZE);
+            int deleted = commentsMapper.delete(queryWrapper);
+            if (deleted > 0) {
+                topicCommentCountService.adjustCommentsCount(topicId, -deleted);
+                commentPageCache.invalidate(topicId);
+                total += deleted;
+            }
+            if (deleted < BATCH_SIZE) {
+                break;
+            }
+        }
+        if (total > 0) {
+            log.info("根评论{}的子评论已删除，共{}条", rootId, total);
+        }
+    }
+}
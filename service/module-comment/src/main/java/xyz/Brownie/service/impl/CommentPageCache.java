@@ -0,0 +1,82 @@
+package xyz.Brownie.service.impl;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import xyz.Brownie.bean.vo.CommentsVo;
+import xyz.Brownie.bean.vo.PageVo;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 热门帖子前几页评论的快照缓存
+ * - 每个帖子一个Hash,field为"页码:每页条数",value为去掉空字段的JSON,不含用户昵称头像(读出后再补)
+ * - 发表/删除评论时递增帖子的版本号,读写都落在当前版本的Hash上,
+ *   旧版本的Hash不再被读到,等过期即可;写之前已开始构建的旧快照也只会写进旧版本,不会覆盖新数据
+ */
+@Service
+@RequiredArgsConstructor
+public class CommentPageCache {
+    private static final Logger log = LoggerFactory.getLogger(CommentPageCache.class);
+
+    private static final String PAGE_KEY = "comments:page:";
+    private static final String VERSION_KEY = "comments:page:ver:";
+    private static final long PAGE_TTL_MINUTES = 10;
+    private static final long VERSION_TTL_DAYS = 1;
+    // 只缓存前几页和常用的每页条数
+    private static final int CACHED_PAGES = 3;
+    private static final int MAX_CACHED_PAGE_SIZE = 20;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public boolean cacheable(Integer pageNum, Integer pageSize) {
+        return pageNum != null && pageSize != null
+                && pageNum >= 1 && pageNum <= CACHED_PAGES
+                && pageSize >= 1 && pageSize <= MAX_CACHED_PAGE_SIZE;
+    }
+
+    /**
+     * 取评论页快照,没有时用loader构建并写入;Redis出错时直接走loader
+     */
+    public PageVo load(Long topicId, int pageNum, int pageSize, Supplier<PageVo> loader) {
+        String key;
+        String field = pageNum + ":" + pageSize;
+        try {
+            String version = stringRedisTemplate.opsForValue().get(VERSION_KEY + topicId);
+            key = PAGE_KEY + topicId + ":" + (version == null ? "0" : version);
+            Object cached = stringRedisTemplate.opsForHash().get(key, field);
+            if (cached != null) {
+                JSONObject snapshot = JSON.parseObject(cached.toString());
+                return new PageVo(snapshot.getJSONArray("rows").toJavaList(CommentsVo.class), snapshot.getLong("total"));
+            }
+        } catch (Exception e) {
+            log.error("读取评论页缓存失败, topicId: {}", topicId, e);
+            return loader.get();
+        }
+        PageVo page = loader.get();
+        try {
+            stringRedisTemplate.opsForHash().put(key, field, JSON.toJSONString(page));
+            stringRedisTemplate.expire(key, PAGE_TTL_MINUTES, TimeUnit.MINUTES);
+        } catch (Exception e) {
+            log.error("写入评论页缓存失败, topicId: {}", topicId, e);
+        }
+        return page;
+    }
+
+    /**
+     * 帖子的评论有变化,之后的读取都会重新构建
+     */
+    public void invalidate(Long topicId) {
+        if (topicId == null) {
+            return;
+        }
+        String versionKey = VERSION_KEY + topicId;
+        stringRedisTemplate.opsForValue().increment(versionKey);
+        stringRedisTemplate.expire(versionKey, VERSION_TTL_DAYS, TimeUnit.DAYS);
+    }
+}
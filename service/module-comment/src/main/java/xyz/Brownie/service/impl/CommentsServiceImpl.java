@@ -1,26 +1,31 @@
 package xyz.Brownie.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
-import xyz.Brownie.bean.entity.User;
-import xyz.Brownie.client.UserClient;
 import xyz.Brownie.utils.BeanCopyUtils;
+import xyz.Brownie.utils.CursorUtils;
 import xyz.Brownie.exception.EmptyContentException;
 import xyz.Brownie.constants.ResponseCode;
 import xyz.Brownie.utils.Result;
+import xyz.Brownie.utils.UserProfileCache;
 import xyz.Brownie.bean.entity.Comments;
 import xyz.Brownie.bean.vo.CommentsVo;
 import xyz.Brownie.bean.vo.PageVo;
 import xyz.Brownie.mapper.CommentsMapper;
 import xyz.Brownie.service.CommentsService;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 
 @Service
@@ -28,11 +33,47 @@ public class CommentsServiceImpl extends ServiceImpl<CommentsMapper, Comments>
         implements CommentsService {
 
     @Autowired
-    private UserClient userClient;
+    private UserProfileCache userProfileCache;
+
+    @Autowired
+    private TopicCommentCountService topicCommentCountService;
+
+    @Autowired
+    private CommentPageCache commentPageCache;
+
+    @Autowired
+    private CommentCascadeDeleteService commentCascadeDeleteService;
+
+    // 评论列表里每个根评论带出的子评论条数
+    private static final int EMBED_REPLIES = 3;
+    private static final int MAX_REPLY_PAGE_SIZE = 50;
 
     @Override
     public Result commentsList(Long topicId, Integer pageNum, Integer pageSize) {
         Map commentsListMap = new HashMap<>();
+        // 前几页走快照缓存,快照里没有用户资料,统一在这里补上
+        PageVo pageVo = commentPageCache.cacheable(pageNum, pageSize)
+                ? commentPageCache.load(topicId, pageNum, pageSize, () -> buildCommentPage(topicId, pageNum, pageSize))
+                : buildCommentPage(topicId, pageNum, pageSize);
+        List<CommentsVo> withChildren = new ArrayList<>();
+        for (Object row : pageVo.getRows()) {
+            CommentsVo root = (CommentsVo) row;
+            withChildren.add(root);
+            if (root.getChildren() != null) {
+                withChildren.addAll(root.getChildren());
+            }
+        }
+        fillProfiles(withChildren);
+
+        commentsListMap.put("list", pageVo);
+
+        return Result.suc(ResponseCode.Code200, commentsListMap);
+    }
+
+    /**
+     * 查库构建一页评论,不含用户资料
+     */
+    private PageVo buildCommentPage(Long topicId, Integer pageNum, Integer pageSize) {
         // 查询对应文章的根评论
         LambdaQueryWrapper<Comments> queryWrapper = new LambdaQueryWrapper<>();
         // 对topicId进行判断
@@ -44,20 +85,43 @@ public class CommentsServiceImpl extends ServiceImpl<CommentsMapper, Comments>
         Page<Comments> page = new Page(pageNum, pageSize);
         page(page, queryWrapper);
 
-        List<CommentsVo> commentVoList = toCommentVoList(page.getRecords());
-
-        // 查询所有根评论对应的子评论集合，并且赋值给对应的属性
-        for (CommentsVo commentsVo : commentVoList) {
-            // 查询对应的子评论
-            List<CommentsVo> children = getChildren(commentsVo.getId());
-            // 赋值
-            commentsVo.setChildren(children);
+        List<Comments> roots = page.getRecords();
+        List<Long> rootIds = new ArrayList<>(roots.size());
+        for (Comments root : roots) {
+            rootIds.add(root.getId());
         }
+        // 一条查询取出本页每个根评论的前几条子评论,再一条查询统计子评论总数
+        List<Comments> children = rootIds.isEmpty()
+                ? new ArrayList<>()
+                : getBaseMapper().selectFirstReplies(rootIds, EMBED_REPLIES);
+        Map<Long, Long> replyCounts = countReplies(rootIds);
 
+        List<Comments> all = new ArrayList<>(roots.size() + children.size());
+        all.addAll(roots);
+        all.addAll(children);
+        List<CommentsVo> allVos = BeanCopyUtils.copyBeanList(all, CommentsVo.class);
+        List<CommentsVo> commentVoList = new ArrayList<>(allVos.subList(0, roots.size()));
 
-        commentsListMap.put("list", new PageVo(commentVoList, page.getTotal()));
+        // 按rootId分组，并且赋值给对应根评论的属性
+        Map<Long, List<CommentsVo>> childrenMap = new HashMap<>();
+        Map<Long, Comments> lastChild = new HashMap<>();
+        for (int i = 0; i < children.size(); i++) {
+            CommentsVo child = allVos.get(roots.size() + i);
+            childrenMap.computeIfAbsent(child.getRootId(), k -> new ArrayList<>()).add(child);
+            lastChild.put(child.getRootId(), children.get(i));
+        }
+        for (CommentsVo commentsVo : commentVoList) {
+            List<CommentsVo> preview = childrenMap.getOrDefault(commentsVo.getId(), new ArrayList<>());
+            long replyCount = replyCounts.getOrDefault(commentsVo.getId(), 0L);
+            commentsVo.setChildren(preview);
+            commentsVo.setReplyCount(replyCount);
+            // 还有没带出来的子评论,给出从最后一条预览之后继续的游标
+            if (replyCount > preview.size()) {
+                commentsVo.setRepliesCursor(replyCursor(lastChild.get(commentsVo.getId())));
+            }
+        }
 
-        return Result.suc(ResponseCode.Code200, commentsListMap);
+        return new PageVo(commentVoList, page.getTotal());
     }
 
     @Override
@@ -75,7 +139,10 @@ public class CommentsServiceImpl extends ServiceImpl<CommentsMapper, Comments>
                 return Result.fail(ResponseCode.Code402, addCommentsMap);
             }
         }
-        save(comments);
+        if (save(comments)) {
+            topicCommentCountService.adjustCommentsCount(comments.getTopicId(), 1);
+            commentPageCache.invalidate(comments.getTopicId());
+        }
 
         addCommentsMap.put("msg", "操作成功");
 
@@ -85,51 +152,136 @@ public class CommentsServiceImpl extends ServiceImpl<CommentsMapper, Comments>
     @Override
     public Result delComments(Long id) {
         Map delCommentsMap = new HashMap<>();
-        // 根据评论id删除评论
-        removeById(id);
-        LambdaQueryWrapper<Comments> queryWrapper = new LambdaQueryWrapper<>();
-        queryWrapper.eq(Comments::getRootId,id);
-        remove(queryWrapper);
+        Comments target = getById(id);
+        // 根据评论id删除评论,子评论交给后台分批删除,接口不等待
+        if (target != null && removeById(id)) {
+            topicCommentCountService.adjustCommentsCount(target.getTopicId(), -1);
+            commentPageCache.invalidate(target.getTopicId());
+            if (target.getRootId() != null && target.getRootId() == -1) {
+                commentCascadeDeleteService.enqueue(id, target.getTopicId());
+            }
+        }
         delCommentsMap.put("msg", "操作成功");
         return Result.suc(ResponseCode.Code200, delCommentsMap);
     }
 
+    @Override
+    public Map<Long, Long> countByTopicIds(List<Long> topicIds) {
+        Map<Long, Long> counts = new HashMap<>();
+        if (topicIds == null || topicIds.isEmpty()) {
+            return counts;
+        }
+        // 一条group by统计所有帖子的评论数
+        QueryWrapper<Comments> queryWrapper = new QueryWrapper<>();
+        queryWrapper.select("topic_id", "count(*) as num")
+                .in("topic_id", topicIds)
+                .groupBy("topic_id");
+        List<Map<String, Object>> rows = listMaps(queryWrapper);
+        for (Map<String, Object> row : rows) {
+            counts.put(((Number) row.get("topic_id")).longValue(), ((Number) row.get("num")).longValue());
+        }
+        // 没有评论的帖子也返回0
+        for (Long topicId : topicIds) {
+            counts.putIfAbsent(topicId, 0L);
+        }
+        return counts;
+    }
+
+
+    @Override
+    public Result replies(Long rootId, String cursor, Integer pageSize) {
+        Map repliesMap = new HashMap<>();
+        int size = pageSize == null || pageSize <= 0 ? 10 : Math.min(pageSize, MAX_REPLY_PAGE_SIZE);
+        long[] after;
+        try {
+            after = CursorUtils.decode(cursor, 2);
+        } catch (IllegalArgumentException e) {
+            repliesMap.put("msg", "游标无效,请刷新页面");
+            return Result.fail(ResponseCode.Code402, repliesMap);
+        }
+        // 根评论已删除(子评论可能还在等后台级联删除)或不是根评论时,不再展示子评论
+        Comments root = getById(rootId);
+        if (root == null || root.getRootId() == null || root.getRootId() != -1) {
+            repliesMap.put("list", new ArrayList<>());
+            repliesMap.put("nextCursor", null);
+            return Result.suc(ResponseCode.Code200, repliesMap);
+        }
+        // 按(create_time, id)往后翻,每页代价与楼层深度无关
+        LambdaQueryWrapper<Comments> queryWrapper = new LambdaQueryWrapper<>();
+        queryWrapper.eq(Comments::getRootId, rootId);
+        if (after != null) {
+            queryWrapper.apply("(create_time > {0} or (create_time = {0} and id > {1}))", new Date(after[0]), after[1]);
+        }
+        queryWrapper.orderByAsc(Comments::getCreateTime).orderByAsc(Comments::getId)
+                .last("limit " + (size + 1));
+        List<Comments> replies = list(queryWrapper);
+        String nextCursor = null;
+        if (replies.size() > size) {
+            replies = new ArrayList<>(replies.subList(0, size));
+            nextCursor = replyCursor(replies.get(size - 1));
+        }
+        repliesMap.put("list", toCommentVoList(replies));
+        repliesMap.put("nextCursor", nextCursor);
+        return Result.suc(ResponseCode.Code200, repliesMap);
+    }
 
     /**
-     * 根据根评论的id查询所对应的子评论的集合
+     * 一条group by统计多个根评论的子评论数
      *
-     * @param id 根评论的id
+     * @param rootIds 根评论的id
      * @return
      */
-    private List<CommentsVo> getChildren(Long id) {
-
-        LambdaQueryWrapper<Comments> queryWrapper = new LambdaQueryWrapper<>();
-        queryWrapper.eq(Comments::getRootId, id);
-        queryWrapper.orderByAsc(Comments::getCreateTime);
-        List<Comments> comments = list(queryWrapper);
-
-        List<CommentsVo> commentVos = toCommentVoList(comments);
-        return commentVos;
+    private Map<Long, Long> countReplies(List<Long> rootIds) {
+        Map<Long, Long> counts = new HashMap<>();
+        if (rootIds.isEmpty()) {
+            return counts;
+        }
+        QueryWrapper<Comments> queryWrapper = new QueryWrapper<>();
+        queryWrapper.select("root_id", "count(*) as num")
+                .in("root_id", rootIds)
+                .groupBy("root_id");
+        for (Map<String, Object> row : listMaps(queryWrapper)) {
+            counts.put(((Number) row.get("root_id")).longValue(), ((Number) row.get("num")).longValue());
+        }
+        return counts;
+    }
 
+    private static String replyCursor(Comments reply) {
+        return CursorUtils.encode(reply.getCreateTime().getTime(), reply.getId());
     }
 
     private List<CommentsVo> toCommentVoList(List<Comments> list) {
         List<CommentsVo> commentVos = BeanCopyUtils.copyBeanList(list, CommentsVo.class);
+        fillProfiles(commentVos);
+        return commentVos;
+    }
+
+    private void fillProfiles(List<CommentsVo> commentVos) {
+        //先收集这一批评论涉及的所有用户,去重后一次取出资料
+        Set<Long> userIds = new HashSet<>();
+        for (CommentsVo commentVo : commentVos) {
+            userIds.add(commentVo.getCreateById());
+            userIds.add(commentVo.getToCommentUserId());
+        }
+        Map<Long, UserProfileCache.Profile> profiles = userProfileCache.getAll(userIds);
         //遍历vo集合
         for (CommentsVo commentVo : commentVos) {
             //通过createById查询用户的昵称并赋值
-            User user = userClient.getUserById(commentVo.getCreateById());
-            commentVo.setUserName(user.getName());
-            commentVo.setUserAvatar(user.getAvatar());
+            UserProfileCache.Profile profile = profiles.get(commentVo.getCreateById());
+            if (profile != null) {
+                commentVo.setUserName(profile.getName());
+                commentVo.setUserAvatar(profile.getAvatar());
+            }
 
             //通过toCommentUserId查询用户的昵称并赋值
             //如果toCommentUserId不为-1才进行查询
             if (commentVo.getToCommentUserId() != -1) {
-                String toCommentUserName = userClient.getUserById(commentVo.getToCommentUserId()).getName();
-                commentVo.setToCommentUserName(toCommentUserName);
+                UserProfileCache.Profile toProfile = profiles.get(commentVo.getToCommentUserId());
+                if (toProfile != null) {
+                    commentVo.setToCommentUserName(toProfile.getName());
+                }
             }
         }
-        return commentVos;
     }
 
 
@@ -0,0 +1,108 @@
+package xyz.Brownie.service.impl;
+
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+import xyz.Brownie.constants.Constants;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 帖子评论数增量，先累加在Redis，由CommentCountSyncTask定时批量写回topic表
+ */
+@Service
+@RequiredArgsConstructor
+public class TopicCommentCountService {
+    private static final Logger log = LoggerFactory.getLogger(TopicCommentCountService.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    // 正在同步的批次: 增量的副本和批次号,确认前一直保留,重试时原样重发
+    private static final String BATCH_KEY = "topic:comments:count:batch";
+    private static final String BATCH_ID_KEY = "topic:comments:count:batch:id";
+
+    // 已有未确认的批次就返回它的批次号;否则把非0增量复制成新批次,没有增量返回空
+    private static final DefaultRedisScript<String> PREPARE_BATCH_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[2]) == 1 then "
+                    + "return redis.call('GET', KEYS[3]) "
+                    + "end "
+                    + "local entries = redis.call('HGETALL', KEYS[1]) "
+                    + "local size = 0 "
+                    + "for i = 1, #entries, 2 do "
+                    + "if tonumber(entries[i + 1]) ~= 0 then "
+                    + "redis.call('HSET', KEYS[2], entries[i], entries[i + 1]) "
+                    + "size = size + 1 "
+                    + "end "
+                    + "end "
+                    + "if size == 0 then return false end "
+                    + "redis.call('SET', KEYS[3], ARGV[1]) "
+                    + "return ARGV[1]", String.class);
+
+    // 批次号一致时从增量里扣掉整个批次并删除批次,保证只扣一次
+    private static final DefaultRedisScript<Long> ACK_BATCH_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[3]) ~= ARGV[1] then return 0 end "
+                    + "local entries = redis.call('HGETALL', KEYS[2]) "
+                    + "for i = 1, #entries, 2 do "
+                    + "redis.call('HINCRBY', KEYS[1], entries[i], -tonumber(entries[i + 1])) "
+                    + "end "
+                    + "redis.call('DEL', KEYS[2], KEYS[3]) "
+                    + "return 1", Long.class);
+
+    // 基本计数操作
+    public void adjustCommentsCount(Long topicId, long delta) {
+        if (topicId == null || delta == 0) {
+            return;
+        }
+        stringRedisTemplate.opsForHash().increment(Constants.TOPIC_COMMENTS_COUNT_KEY, topicId.toString(), delta);
+    }
+
+    /**
+     * 取出待同步的批次,上次没有确认的批次优先重发
+     *
+     * @return 批次号;没有需要同步的增量返回null
+     */
+    public String prepareBatch() {
+        return stringRedisTemplate.execute(PREPARE_BATCH_SCRIPT,
+                Arrays.asList(Constants.TOPIC_COMMENTS_COUNT_KEY, BATCH_KEY, BATCH_ID_KEY),
+                UUID.randomUUID().toString());
+    }
+
+    // 当前批次的增量
+    public Map<Long, Integer> getBatch() {
+        return getCountMap(BATCH_KEY);
+    }
+
+    /**
+     * topic模块确认写入后扣掉批次里的增量,期间新增的增量不受影响
+     */
+    public void ackBatch(String batchId) {
+        stringRedisTemplate.execute(ACK_BATCH_SCRIPT,
+                Arrays.asList(Constants.TOPIC_COMMENTS_COUNT_KEY, BATCH_KEY, BATCH_ID_KEY), batchId);
+    }
+
+    private Map<Long, Integer> getCountMap(String key) {
+        Map<Long, Integer> result = new HashMap<>();
+        try {
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(key);
+            entries.forEach((topicId, count) -> {
+                try {
+                    int delta = Integer.parseInt(count.toString());
+                    if (delta != 0) {
+                        result.put(Long.parseLong(topicId.toString()), delta);
+                    }
+                } catch (NumberFormatException e) {
+                    log.warn("无法解析评论数增量: {}={}", topicId, count);
+                }
+            });
+        } catch (Exception e) {
+            log.error("获取评论数映射失败: {}", key, e);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,61 @@
+package xyz.Brownie.task;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import xyz.Brownie.client.TopicClient;
+import xyz.Brownie.service.impl.TopicCommentCountService;
+import xyz.Brownie.utils.RedisLock;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@Service
+public class CommentCountSyncTask {
+    private static final Logger log = LoggerFactory.getLogger(CommentCountSyncTask.class);
+
+    // 锁租期,远大于一次Feign调用的超时
+    private static final long SYNC_LEASE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    @Autowired
+    private TopicClient topicClient;
+
+    @Autowired
+    private TopicCommentCountService topicCommentCountService;
+
+    // 多实例部署时同一时刻只有一个实例在同步
+    @Autowired
+    private RedisLock redisLock;
+
+    /**
+     * 每分钟把累计的评论数增量批量同步到topic表
+     * 增量先固定成带批次号的批次,超时或失败后下次原样重发,topic模块按批次号去重,不会重复累加
+     */
+    @Scheduled(cron = "0 * * * * ?")
+    public void syncCommentsCount() {
+        redisLock.runExclusively("comment:sync:count", SYNC_LEASE_MILLIS, this::syncBatch);
+    }
+
+    private void syncBatch() {
+        String batchId = topicCommentCountService.prepareBatch();
+        if (batchId == null) {
+            return;
+        }
+        Map<Long, Integer> batch = topicCommentCountService.getBatch();
+        if (batch.isEmpty()) {
+            // 读批次失败,不能确认,留到下次
+            return;
+        }
+        try {
+            topicClient.adjustCommentsCount(batchId, batch);
+        } catch (Exception e) {
+            // 批次仍保留在Redis中，下次用同一个批次号重发
+            log.error("同步评论数失败，批次: {}，帖子数: {}", batchId, batch.size(), e);
+            return;
+        }
+        // 同步成功后，扣掉已写入的批次，期间新增的增量不受影响
+        topicCommentCountService.ackBatch(batchId);
+    }
+}
@@ -0,0 +1,29 @@
+package xyz.Brownie.task;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import xyz.Brownie.service.impl.CommentCascadeDeleteService;
+
+@Service
+public class CommentDeleteTask {
+    private static final Logger log = LoggerFactory.getLogger(CommentDeleteTask.class);
+
+    @Autowired
+    private CommentCascadeDeleteService commentCascadeDeleteService;
+
+    /**
+     * 上一次结束2秒后再清理一次被删根评论的子评论
+     */
+    @Scheduled(fixedDelay = 2000)
+    public void deleteChildren() {
+        try {
+            commentCascadeDeleteService.processPending();
+        } catch (Exception e) {
+            // 单个任务的失败在processPending里处理,这里只会是Redis本身不可用
+            log.error("级联删除子评论失败", e);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+-- 评论查询用到的组合索引
+
+-- 根评论分页: where topic_id = ? and root_id = -1
+create index idx_comments_topic_root on comments (topic_id, root_id);
+
+-- 子评论预览和展开分页: where root_id = ? order by create_time, id
+create index idx_comments_root_time on comments (root_id, create_time);
@@ -0,0 +1,208 @@
+package xyz.Brownie.service.impl;
+
+import com.baomidou.mybatisplus.annotation.DbType;
+import com.baomidou.mybatisplus.extension.plugins.MybatisPlusInterceptor;
+import com.baomidou.mybatisplus.extension.plugins.inner.PaginationInnerInterceptor;
+import com.baomidou.mybatisplus.extension.spring.MybatisSqlSessionFactoryBean;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+import xyz.Brownie.bean.vo.PageVo;
+import xyz.Brownie.mapper.CommentsMapper;
+import xyz.Brownie.utils.Result;
+import xyz.Brownie.utils.UserProfileCache;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 评论列表第一页的读吞吐: 走CommentPageCache快照 vs 每次查库构建
+ * - 两边都是真实的CommentsServiceImpl.commentsList,MyBatis-Plus生成的分页、子评论、计数SQL跑在H2(MySQL模式)上
+ * - Redis用内存Map代替(和CommentPageCacheTest一样),用户资料缓存是真实的UserProfileCache
+ * - 都在进程内,不含网络往返: 线上快照命中是2次Redis往返,构建是4次MySQL往返,差距只会比这里更大
+ * <p>
+ * 不在surefire里跑,手动执行main:
+ * <pre>
+ * mvn -pl service/module-comment test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp service/module-comment/target/test-classes:service/module-comment/target/classes:$(cat service/module-comment/target/cp.txt) \
+ *     xyz.Brownie.service.impl.CommentPageCacheBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommentPageCacheBenchmark {
+
+    private static final long TOPIC_ID = 1L;
+    private static final int ROOT_COMMENTS = 200;
+    private static final int REPLIES_PER_ROOT = 10;
+    private static final int PAGE_SIZE = 10;
+
+    private JdbcConnectionPool dataSource;
+    private CommentsServiceImpl cached;
+    private CommentsServiceImpl uncached;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // 列名按小写返回,listMaps取root_id/num和MySQL一致
+        dataSource = JdbcConnectionPool.create("jdbc:h2:mem:comment_bench;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        createComments();
+
+        MybatisSqlSessionFactoryBean factoryBean = new MybatisSqlSessionFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setMapperLocations(new PathMatchingResourcePatternResolver().getResources("classpath:mapper/CommentsMapper.xml"));
+        MybatisPlusInterceptor interceptor = new MybatisPlusInterceptor();
+        interceptor.addInnerInterceptor(new PaginationInnerInterceptor(DbType.H2));
+        factoryBean.setPlugins(interceptor);
+        SqlSessionFactory sqlSessionFactory = factoryBean.getObject();
+        CommentsMapper mapper = new SqlSessionTemplate(sqlSessionFactory).getMapper(CommentsMapper.class);
+
+        UserProfileCache profiles = new UserProfileCache(ids -> {
+            Map<Long, UserProfileCache.Profile> loaded = new HashMap<>();
+            ids.forEach(id -> loaded.put(id, new UserProfileCache.Profile("user" + id, "https://cdn/avatar/" + id + ".png")));
+            return loaded;
+        });
+        cached = service(mapper, profiles, new CommentPageCache(inMemoryRedis()));
+        // cacheable()恒为false,每次都查库
+        uncached = service(mapper, profiles, mock(CommentPageCache.class, withSettings().stubOnly()));
+
+        // 两条路径结果一致,顺便写入快照
+        PageVo fromCache = page(cached.commentsList(TOPIC_ID, 1, PAGE_SIZE));
+        PageVo fromDb = page(uncached.commentsList(TOPIC_ID, 1, PAGE_SIZE));
+        if (!fromCache.getTotal().equals(fromDb.getTotal()) || fromCache.getRows().size() != PAGE_SIZE
+                || fromDb.getRows().size() != PAGE_SIZE) {
+            throw new IllegalStateException("缓存和查库的结果不一致");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.dispose();
+    }
+
+    @Benchmark
+    public Result cachedFirstPage() {
+        return cached.commentsList(TOPIC_ID, 1, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public Result uncachedFirstPage() {
+        return uncached.commentsList(TOPIC_ID, 1, PAGE_SIZE);
+    }
+
+    private static CommentsServiceImpl service(CommentsMapper mapper, UserProfileCache profiles, CommentPageCache pageCache) {
+        CommentsServiceImpl service = new CommentsServiceImpl();
+        ReflectionTestUtils.setField(service, "baseMapper", mapper);
+        ReflectionTestUtils.setField(service, "userProfileCache", profiles);
+        ReflectionTestUtils.setField(service, "commentPageCache", pageCache);
+        return service;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static PageVo page(Result result) {
+        return (PageVo) ((Map<String, Object>) result.getData()).get("list");
+    }
+
+    // 版本号和快照Hash放在Map里,不记录调用
+    @SuppressWarnings("unchecked")
+    private static StringRedisTemplate inMemoryRedis() {
+        Map<String, String> values = new ConcurrentHashMap<>();
+        Map<String, Map<Object, Object>> hashes = new ConcurrentHashMap<>();
+        StringRedisTemplate template = mock(StringRedisTemplate.class, withSettings().stubOnly());
+        ValueOperations<String, String> valueOps = mock(ValueOperations.class, withSettings().stubOnly());
+        HashOperations<String, Object, Object> hashOps = mock(HashOperations.class, withSettings().stubOnly());
+        when(template.opsForValue()).thenReturn(valueOps);
+        when(template.<Object, Object>opsForHash()).thenReturn(hashOps);
+        when(valueOps.get(anyString())).thenAnswer(inv -> values.get(inv.<String>getArgument(0)));
+        when(hashOps.get(anyString(), any())).thenAnswer(inv ->
+                hashes.getOrDefault(inv.<String>getArgument(0), new HashMap<>()).get(inv.getArgument(1)));
+        doAnswer(inv -> {
+            hashes.computeIfAbsent(inv.getArgument(0), k -> new ConcurrentHashMap<>()).put(inv.getArgument(1), inv.getArgument(2));
+            return null;
+        }).when(hashOps).put(anyString(), any(), any());
+        return template;
+    }
+
+    private void createComments() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("create table comments (id bigint auto_increment primary key, topic_id bigint, root_id bigint, "
+                        + "create_by_id bigint, to_comment_user_id bigint, to_comment_id bigint, content varchar(500), "
+                        + "create_time datetime, is_delete int default 0)");
+                // 和线上一样按这两个索引取根评论和子评论
+                statement.execute("create index idx_comments_topic_root on comments (topic_id, root_id)");
+                statement.execute("create index idx_comments_root_time on comments (root_id, create_time)");
+            }
+            String insert = "insert into comments (id, topic_id, root_id, create_by_id, to_comment_user_id, to_comment_id, content, create_time, is_delete) "
+                    + "values (?, ?, ?, ?, ?, ?, ?, ?, 0)";
+            try (PreparedStatement statement = connection.prepareStatement(insert)) {
+                long id = 1;
+                long time = 1700000000000L;
+                for (int root = 0; root < ROOT_COMMENTS; root++) {
+                    long rootId = id++;
+                    add(statement, rootId, -1L, rootId % 50, -1L, -1L, time++);
+                    for (int reply = 0; reply < REPLIES_PER_ROOT; reply++) {
+                        add(statement, id++, rootId, reply % 50, rootId % 50, rootId, time++);
+                    }
+                }
+                statement.executeBatch();
+            }
+        }
+    }
+
+    private static void add(PreparedStatement statement, long id, long rootId, long userId, long toUserId, long toCommentId,
+                            long time) throws Exception {
+        statement.setLong(1, id);
+        statement.setLong(2, TOPIC_ID);
+        statement.setLong(3, rootId);
+        statement.setLong(4, userId);
+        statement.setLong(5, toUserId);
+        statement.setLong(6, toCommentId);
+        statement.setString(7, "评论内容" + id);
+        statement.setTimestamp(8, new Timestamp(time));
+        statement.addBatch();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        OptionsBuilder options = new OptionsBuilder();
+        options.include(CommentPageCacheBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class);
+        // MyBatis-Plus的Lambda条件要反射SerializedLambda,JDK9以上需要打开java.lang.invoke
+        if (!System.getProperty("java.specification.version").startsWith("1.")) {
+            options.jvmArgsAppend("--add-opens=java.base/java.lang.invoke=ALL-UNNAMED");
+        }
+        new Runner(options.build()).run();
+    }
+}
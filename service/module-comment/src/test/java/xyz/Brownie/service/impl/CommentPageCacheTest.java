@@ -0,0 +1,163 @@
+package xyz.Brownie.service.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import xyz.Brownie.bean.vo.CommentsVo;
+import xyz.Brownie.bean.vo.PageVo;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CommentPageCacheTest {
+
+    private static final Long TOPIC_ID = 42L;
+
+    // 用Map模拟Redis里的版本号和Hash
+    private final Map<String, String> values = new HashMap<>();
+    private final Map<String, Map<Object, Object>> hashes = new HashMap<>();
+    private StringRedisTemplate stringRedisTemplate;
+    private CommentPageCache cache;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOps = mock(ValueOperations.class);
+        HashOperations<String, Object, Object> hashOps = mock(HashOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOps);
+        when(stringRedisTemplate.<Object, Object>opsForHash()).thenReturn(hashOps);
+        when(valueOps.get(anyString())).thenAnswer(inv -> values.get(inv.<String>getArgument(0)));
+        when(valueOps.increment(anyString())).thenAnswer(inv -> {
+            String key = inv.getArgument(0);
+            long next = Long.parseLong(values.getOrDefault(key, "0")) + 1;
+            values.put(key, String.valueOf(next));
+            return next;
+        });
+        when(hashOps.get(anyString(), any())).thenAnswer(inv ->
+                hashes.getOrDefault(inv.<String>getArgument(0), Collections.emptyMap()).get(inv.getArgument(1)));
+        doAnswer(inv -> {
+            hashes.computeIfAbsent(inv.getArgument(0), k -> new HashMap<>()).put(inv.getArgument(1), inv.getArgument(2));
+            return null;
+        }).when(hashOps).put(anyString(), any(), any());
+        cache = new CommentPageCache(stringRedisTemplate);
+    }
+
+    @Test
+    void cacheableOnlyForFirstPagesAndSmallPageSizes() {
+        assertTrue(cache.cacheable(1, 10));
+        assertTrue(cache.cacheable(3, 20));
+        assertFalse(cache.cacheable(4, 10));
+        assertFalse(cache.cacheable(1, 21));
+        assertFalse(cache.cacheable(0, 10));
+        assertFalse(cache.cacheable(null, 10));
+    }
+
+    @Test
+    void secondReadIsServedFromSnapshot() {
+        CountingLoader loader = new CountingLoader("first");
+        PageVo first = cache.load(TOPIC_ID, 1, 10, loader);
+        PageVo second = cache.load(TOPIC_ID, 1, 10, loader);
+
+        assertEquals(1, loader.calls.get());
+        assertEquals(first.getTotal(), second.getTotal());
+        assertEquals("first", content(second));
+        assertTrue(hashes.containsKey("comments:page:" + TOPIC_ID + ":0"));
+    }
+
+    @Test
+    void pagesAreCachedSeparately() {
+        CountingLoader loader = new CountingLoader("x");
+        cache.load(TOPIC_ID, 1, 10, loader);
+        cache.load(TOPIC_ID, 2, 10, loader);
+        cache.load(TOPIC_ID, 1, 20, loader);
+        assertEquals(3, loader.calls.get());
+        assertEquals(3, hashes.get("comments:page:" + TOPIC_ID + ":0").size());
+    }
+
+    @Test
+    void invalidateBumpsVersionAndForcesRebuild() {
+        cache.load(TOPIC_ID, 1, 10, new CountingLoader("old"));
+        cache.invalidate(TOPIC_ID);
+
+        CountingLoader loader = new CountingLoader("new");
+        assertEquals("new", content(cache.load(TOPIC_ID, 1, 10, loader)));
+        assertEquals(1, loader.calls.get());
+        assertEquals("1", values.get("comments:page:ver:" + TOPIC_ID));
+        // 新快照写在新版本的Hash上,旧版本原样留着等过期
+        assertEquals("new", content(cache.load(TOPIC_ID, 1, 10, new CountingLoader("unused"))));
+        assertTrue(hashes.containsKey("comments:page:" + TOPIC_ID + ":0"));
+        assertTrue(hashes.containsKey("comments:page:" + TOPIC_ID + ":1"));
+        verify(stringRedisTemplate).expire(eq("comments:page:ver:" + TOPIC_ID), anyLong(), any());
+    }
+
+    @Test
+    void snapshotBuiltBeforeInvalidateLandsInOldVersion() {
+        // 构建过程中有人发表了评论: 旧快照只能写进旧版本,读不到
+        PageVo stale = cache.load(TOPIC_ID, 1, 10, () -> {
+            cache.invalidate(TOPIC_ID);
+            return page("stale");
+        });
+        assertEquals("stale", content(stale));
+
+        CountingLoader loader = new CountingLoader("fresh");
+        assertEquals("fresh", content(cache.load(TOPIC_ID, 1, 10, loader)));
+        assertEquals(1, loader.calls.get());
+    }
+
+    @Test
+    void invalidateIgnoresNullTopic() {
+        cache.invalidate(null);
+        verifyNoInteractions(stringRedisTemplate);
+    }
+
+    @Test
+    void redisReadFailureFallsBackToLoader() {
+        when(stringRedisTemplate.opsForValue()).thenThrow(new QueryTimeoutException("redis down"));
+        CountingLoader loader = new CountingLoader("db");
+        assertEquals("db", content(cache.load(TOPIC_ID, 1, 10, loader)));
+        assertEquals(1, loader.calls.get());
+        assertTrue(hashes.isEmpty());
+    }
+
+    private static PageVo page(String content) {
+        CommentsVo comment = new CommentsVo();
+        comment.setId(1L);
+        comment.setTopicId(TOPIC_ID);
+        comment.setRootId(-1L);
+        comment.setContent(content);
+        comment.setReplyCount(0L);
+        return new PageVo(Collections.singletonList(comment), 1L);
+    }
+
+    private static String content(PageVo page) {
+        List<?> rows = page.getRows();
+        return ((CommentsVo) rows.get(0)).getContent();
+    }
+
+    private static class CountingLoader implements Supplier<PageVo> {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final String content;
+
+        CountingLoader(String content) {
+            this.content = content;
+        }
+
+        @Override
+        public PageVo get() {
+            calls.incrementAndGet();
+            return page(content);
+        }
+    }
+}
@@ -7,7 +7,9 @@ import xyz.Brownie.constants.ResponseCode;
 import xyz.Brownie.utils.Result;
 import xyz.Brownie.service.TagService;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -49,5 +51,13 @@ public class TagController {
         return  byId.getContent();
     }
 
+    @GetMapping("/batch")
+    public List<Tag> getTagByIds(@RequestParam("ids") List<Long> ids){
+        if (ids == null || ids.isEmpty()){
+            return new ArrayList<>();
+        }
+        return tagService.listByIds(ids);
+    }
+
 
 }
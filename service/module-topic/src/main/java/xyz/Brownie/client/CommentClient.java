@@ -5,6 +5,10 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import java.util.List;
+import java.util.Map;
 
 @FeignClient("module-comment")
 @Component
@@ -12,4 +16,8 @@ import org.springframework.web.bind.annotation.RequestMapping;
 public interface CommentClient {
     @GetMapping("/getCommentNum/{id}")
     public Long getCommentNum(@PathVariable("id") Long id);
+
+    // 一次取多个帖子的实时评论数,列表展示用topic.comments
+    @GetMapping("/counts")
+    public Map<Long, Long> getCommentCounts(@RequestParam("topicIds") List<Long> topicIds);
 }
\ No newline at end of file
@@ -5,6 +5,10 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import xyz.Brownie.bean.entity.Tag;
+
+import java.util.List;
 
 @FeignClient("module-tag")
 @RequestMapping("/tag")
@@ -12,4 +16,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 public interface TagClient {
     @GetMapping("/getTagName/{id}")
     public String getTagName(@PathVariable("id") Long id);
+
+    @GetMapping("/batch")
+    public List<Tag> getTagByIds(@RequestParam("ids") List<Long> ids);
 }
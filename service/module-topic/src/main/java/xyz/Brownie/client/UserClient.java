@@ -6,8 +6,11 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import xyz.Brownie.bean.entity.User;
 
+import java.util.List;
+
 
 @Component
 @FeignClient("module-user")
@@ -15,4 +18,7 @@ import xyz.Brownie.bean.entity.User;
 public interface UserClient {
     @GetMapping("/{id}")
     public User getUserById(@PathVariable("id") Long id);
+
+    @GetMapping("/batch")
+    public List<User> getUserByIds(@RequestParam("ids") List<Long> ids);
 }
@@ -0,0 +1,47 @@
+package xyz.Brownie.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import xyz.Brownie.bean.entity.User;
+import xyz.Brownie.client.UserClient;
+import xyz.Brownie.constants.Constants;
+import xyz.Brownie.service.impl.TopicDetailCache;
+import xyz.Brownie.service.impl.TopicSearchService;
+import xyz.Brownie.utils.UserProfileCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+@Configuration
+public class TopicCacheConfig {
+
+    // 作者资料缓存,未命中的用户一次批量调用module-user
+    @Bean
+    public UserProfileCache userProfileCache(UserClient userClient) {
+        return new UserProfileCache(ids -> {
+            Map<Long, UserProfileCache.Profile> profiles = new HashMap<>();
+            for (User user : userClient.getUserByIds(new ArrayList<>(ids))) {
+                profiles.put(user.getId(), new UserProfileCache.Profile(user.getName(), user.getAvatar()));
+            }
+            return profiles;
+        });
+    }
+
+    // 订阅帖子详情缓存和用户资料缓存的清除通知,以及搜索索引的变更通知
+    @Bean
+    public RedisMessageListenerContainer topicCacheListenerContainer(RedisConnectionFactory factory,
+                                                                     TopicDetailCache topicDetailCache,
+                                                                     UserProfileCache userProfileCache,
+                                                                     TopicSearchService topicSearchService) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(factory);
+        container.addMessageListener(topicDetailCache, new ChannelTopic(TopicDetailCache.EVICT_CHANNEL));
+        container.addMessageListener(userProfileCache, new ChannelTopic(Constants.USER_PROFILE_EVICT_CHANNEL));
+        container.addMessageListener(topicSearchService, new ChannelTopic(TopicSearchService.INDEX_CHANNEL));
+        return container;
+    }
+}
@@ -4,12 +4,15 @@ package xyz.Brownie.controller;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
+import xyz.Brownie.constants.ResponseCode;
 import xyz.Brownie.utils.Result;
+import xyz.Brownie.utils.UserProfileCache;
 import xyz.Brownie.bean.dto.TopicDto;
 import xyz.Brownie.bean.entity.Topic;
 import xyz.Brownie.service.TopicService;
 
 import java.util.List;
+import java.util.Map;
 
 
 @RestController
@@ -18,6 +21,8 @@ import java.util.List;
 public class TopicController {
     @Autowired
     private TopicService topicService;
+    @Autowired
+    private UserProfileCache userProfileCache;
 
     //创建帖子
     @PostMapping
@@ -39,10 +44,11 @@ public class TopicController {
         return topicService.SelectSome(topicDto);
     }
 
-    //帖子的点赞
+    //帖子的点赞,点赞人是网关校验过token的登录账号
     @GetMapping("/addlikes/{id}")
-    public Result addlikes(@PathVariable("id") Long id){
-        return topicService.addlikes(id);
+    public Result addlikes(@PathVariable("id") Long id,
+                           @RequestHeader(value = "account", required = false) String account){
+        return topicService.addlikes(id, account);
     }
     //帖子详情
     @GetMapping("/detail/{id}")
@@ -60,12 +66,48 @@ public class TopicController {
         return topicService.SelectChoose(current,pageSize);
     }
 
+    //游标分页,第一页不传cursor,之后传上一页返回的nextCursor
+    @PostMapping("/selectsome/cursor")
+    public Result SelectSomeByCursor(@RequestBody TopicDto topicDto){
+        return topicService.SelectSomeByCursor(topicDto);
+    }
+    @GetMapping("/hostoftopic/cursor")
+    public Result hostoftopicByCursor(@RequestParam(value = "cursor", required = false) String cursor,
+                                      @RequestParam(value = "pageSize", defaultValue = "10") Integer pageSize){
+        return topicService.HostOfTopicByCursor(cursor, pageSize);
+    }
+    @GetMapping("/SelectChoose/cursor")
+    public Result SelectChooseByCursor(@RequestParam(value = "cursor", required = false) String cursor,
+                                       @RequestParam(value = "pageSize", defaultValue = "10") Integer pageSize){
+        return topicService.SelectChooseByCursor(cursor, pageSize);
+    }
+
+    //作者资料缓存的命中率等统计
+    @GetMapping("/profile-cache/stats")
+    public Result profileCacheStats(){
+        return Result.suc(ResponseCode.Code200, userProfileCache.stats());
+    }
+
     //热点资讯
     @GetMapping("/focus")
     private Result Focus(){
         return topicService.Focus();
     }
 
+    //关键词搜索
+    @GetMapping("/search")
+    public Result Search(@RequestParam("keyWord") String keyWord,
+                         @RequestParam(value = "current", defaultValue = "1") Integer current,
+                         @RequestParam(value = "size", defaultValue = "10") Integer size){
+        return topicService.Search(keyWord, current, size);
+    }
+
+    //热度榜
+    @GetMapping("/trending")
+    public Result Trending(@RequestParam(value = "size", defaultValue = "10") Integer size){
+        return topicService.Trending(size);
+    }
+
     //为用户模块提供服务，通过用户id查询帖子
     @GetMapping("/getUserTopic/{userId}")
     private List<Topic> getUserTopicList(@PathVariable("userId") Long id){
@@ -75,15 +117,20 @@ public class TopicController {
         return list;
     }
 
+    /**
+     * comment模块需求，批量调整评论数;内部接口,网关不放行
+     * 同一batchId重复调用只累加一次,重复的批次同样返回成功,调用方据此确认批次
+     */
+    @PutMapping("/adjust-comments")
+    public Result adjustCommentsCount(@RequestParam("batchId") String batchId,
+                                      @RequestBody Map<Long, Integer> deltas) {
+        topicService.adjustCommentsCount(batchId, deltas);
+        return Result.suc(ResponseCode.Code200);
+    }
+
     @GetMapping("/getTopImg")
     private List<Topic> getTopImgList(){
-        LambdaQueryWrapper<Topic> wrapper = new LambdaQueryWrapper<>();
-        wrapper.orderByDesc(Topic::getIsTop)
-                .orderByDesc(Topic::getNumberOfLikes)
-                .last("limit 0,5")
-                .select(Topic::getCoverImage,Topic::getId);;
-        List<Topic> list = topicService.list(wrapper);
-        return list;
+        return topicService.getTopImgList();
     }
 
 }
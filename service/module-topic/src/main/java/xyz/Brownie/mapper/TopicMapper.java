@@ -1,13 +1,18 @@
 package xyz.Brownie.mapper;
 
+import com.baomidou.mybatisplus.core.conditions.Wrapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.baomidou.mybatisplus.core.toolkit.Constants;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 import xyz.Brownie.bean.dto.TopicDto;
 import xyz.Brownie.bean.entity.Topic;
 
 
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
 * @author 76650
@@ -20,8 +25,24 @@ public interface TopicMapper extends BaseMapper<Topic> {
     List<Topic> searchTopic(TopicDto topicDto);
     Integer updatelikes(Long id);
     Integer updateviews(Long id);
+    //批量累加评论数(帖子id -> 增量)
+    Integer batchAdjustComments(@Param("deltas") Map<Long, Integer> deltas);
+    //记录已写入的评论数批次,批次已存在返回0
+    Integer insertCommentBatch(@Param("batchId") String batchId);
+    //清理time之前的评论数批次
+    Integer deleteCommentBatchesBefore(@Param("time") Date time);
+    //批量累加观看数(帖子id -> 增量)
+    Integer batchAdjustViews(@Param("deltas") Map<Long, Integer> deltas);
+    //批量累加点赞数(帖子id -> 增量)
+    Integer batchAdjustLikes(@Param("deltas") Map<Long, Integer> deltas);
     //分页
     List<Topic> pagination(Page<Topic> page);
+    //分页并带出每个帖子的标签id
+    Page<Topic> selectPageWithTag(Page<Topic> page, @Param(Constants.WRAPPER) Wrapper<Topic> wrapper);
+    //带出标签id的列表查询,游标分页用,排序和limit写在wrapper里
+    List<Topic> selectListWithTag(@Param(Constants.WRAPPER) Wrapper<Topic> wrapper);
+    //与selectListWithTag条件一致的总数
+    Long countWithTag(@Param(Constants.WRAPPER) Wrapper<Topic> wrapper);
 
     // List<Topic> selectPages(Page<Topic> page);
 
@@ -5,6 +5,9 @@ import xyz.Brownie.utils.Result;
 import xyz.Brownie.bean.dto.TopicDto;
 import xyz.Brownie.bean.entity.Topic;
 
+import java.util.List;
+import java.util.Map;
+
 
 /**
 * @author 76650
@@ -21,13 +24,26 @@ public interface TopicService extends IService<Topic> {
     //新建帖子
     Result publish(Topic topic);
     //帖子的点赞
-    Result addlikes(Long id);
+    Result addlikes(Long id, String account);
     //帖子详情
     Result detail(Long id);
     //查询官方发的帖子
     Result HostOfTopic(int curPage,int pageSize);
     //双重排序
     Result SelectChoose(Integer current, Integer pageSize);
+    //游标分页: 查询帖子/官方发的帖子/双重排序
+    Result SelectSomeByCursor(TopicDto topicDto);
+    Result HostOfTopicByCursor(String cursor, Integer pageSize);
+    Result SelectChooseByCursor(String cursor, Integer pageSize);
     //热点资讯
     Result Focus();
+    //关键词搜索
+    Result Search(String keyWord, Integer current, Integer size);
+    //热度榜
+    Result Trending(Integer size);
+    //首页轮播图
+    List<Topic> getTopImgList();
+
+    //comment模块需要,同一批次只累加一次,返回本次是否写入
+    boolean adjustCommentsCount(String batchId, Map<Long, Integer> deltas);
 }
@@ -0,0 +1,102 @@
+package xyz.Brownie.service.impl;
+
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 帖子计数增量，先累加在Redis，由TopicCountSyncTask定时批量写回topic表
+ */
+@Service
+@RequiredArgsConstructor
+public class TopicCountService {
+    private static final Logger log = LoggerFactory.getLogger(TopicCountService.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private static final String VIEWS_COUNT_KEY = "topic:views:count";
+    private static final String LIKES_COUNT_KEY = "topic:likes:count";
+    // 每个帖子一个Set,记录点过赞的登录账号
+    private static final String LIKES_USERS_KEY = "topic:likes:users:";
+
+    // 用户没点过赞才加入Set并累加增量,返回-1表示重复点赞
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('SADD', KEYS[1], ARGV[1]) == 1 then "
+                    + "return redis.call('HINCRBY', KEYS[2], ARGV[2], 1) "
+                    + "end "
+                    + "return -1", Long.class);
+
+    // 基本计数操作,返回该帖子尚未同步的增量
+    public long incrementViews(Long topicId) {
+        Long pending = stringRedisTemplate.opsForHash().increment(VIEWS_COUNT_KEY, topicId.toString(), 1);
+        return pending == null ? 0L : pending;
+    }
+
+    public long getPendingViews(Long topicId) {
+        Object count = stringRedisTemplate.opsForHash().get(VIEWS_COUNT_KEY, topicId.toString());
+        return count != null ? Long.parseLong(count.toString()) : 0L;
+    }
+
+    /**
+     * 点赞,同一用户对同一帖子只算一次
+     *
+     * @return true=点赞成功;false=已经点过赞
+     */
+    public boolean addLike(Long topicId, String account) {
+        Long result = stringRedisTemplate.execute(LIKE_SCRIPT,
+                Arrays.asList(LIKES_USERS_KEY + topicId, LIKES_COUNT_KEY),
+                account, topicId.toString());
+        return result != null && result >= 0;
+    }
+
+    public long getPendingLikes(Long topicId) {
+        Object count = stringRedisTemplate.opsForHash().get(LIKES_COUNT_KEY, topicId.toString());
+        return count != null ? Long.parseLong(count.toString()) : 0L;
+    }
+
+    // 获取计数映射
+    public Map<Long, Integer> getViewsCountMap() {
+        return getCountMap(VIEWS_COUNT_KEY);
+    }
+
+    public Map<Long, Integer> getLikesCountMap() {
+        return getCountMap(LIKES_COUNT_KEY);
+    }
+
+    // 重置计数
+    public void resetViewsCount(Long topicId, int delta) {
+        stringRedisTemplate.opsForHash().increment(VIEWS_COUNT_KEY, topicId.toString(), -delta);
+    }
+
+    public void resetLikesCount(Long topicId, int delta) {
+        stringRedisTemplate.opsForHash().increment(LIKES_COUNT_KEY, topicId.toString(), -delta);
+    }
+
+    // 私有工具方法
+    private Map<Long, Integer> getCountMap(String key) {
+        Map<Long, Integer> result = new HashMap<>();
+        try {
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(key);
+            entries.forEach((topicId, count) -> {
+                try {
+                    int delta = Integer.parseInt(count.toString());
+                    if (delta != 0) {
+                        result.put(Long.parseLong(topicId.toString()), delta);
+                    }
+                } catch (NumberFormatException e) {
+                    log.warn("无法解析计数增量: {} {}={}", key, topicId, count);
+                }
+            });
+        } catch (Exception e) {
+            log.error("获取计数映射失败: {}", key, e);
+        }
+        return result;
+    }
+}
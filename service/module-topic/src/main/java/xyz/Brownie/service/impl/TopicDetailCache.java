@@ -0,0 +1,88 @@
+package xyz.Brownie.service.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import xyz.Brownie.bean.entity.Topic;
+import xyz.Brownie.utils.BeanCopyUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 帖子详情两级缓存: 本机Caffeine + Redis,缓存的是拼好作者和标签的帖子,
+ * 观看数/点赞数不在缓存里,读的时候再从排行榜覆盖上去;
+ * 修改/删除时清掉两级缓存,并通过Redis频道通知其它实例清本机缓存
+ */
+@Service
+@RequiredArgsConstructor
+public class TopicDetailCache implements MessageListener {
+    private static final Logger log = LoggerFactory.getLogger(TopicDetailCache.class);
+
+    public static final String EVICT_CHANNEL = "topic:detail:evict";
+
+    private static final String DETAIL_KEY = "topic:detail:";
+    private static final long REDIS_TTL_MINUTES = 60;
+    private static final long LOCAL_TTL_MINUTES = 10;
+    private static final long LOCAL_MAX_SIZE = 10_000;
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final Cache<Long, Topic> localCache = Caffeine.newBuilder()
+            .maximumSize(LOCAL_MAX_SIZE)
+            .expireAfterWrite(LOCAL_TTL_MINUTES, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 依次查本机缓存,Redis,最后用loader查库;返回副本,调用方可以放心修改
+     */
+    public Topic get(Long topicId, Function<Long, Topic> loader) {
+        Topic topic = localCache.getIfPresent(topicId);
+        if (topic == null) {
+            Object cached = redisTemplate.opsForValue().get(DETAIL_KEY + topicId);
+            if (cached instanceof Topic) {
+                topic = (Topic) cached;
+            } else {
+                topic = loader.apply(topicId);
+                if (topic == null) {
+                    return null;
+                }
+                // 计数会被TopicCountSyncTask持续写回,缓存一小时早就过时,不放进缓存
+                topic.setNumberOfViews(null);
+                topic.setNumberOfLikes(null);
+                redisTemplate.opsForValue().set(DETAIL_KEY + topicId, topic, REDIS_TTL_MINUTES, TimeUnit.MINUTES);
+            }
+            localCache.put(topicId, topic);
+        }
+        return BeanCopyUtils.copyBean(topic, Topic.class);
+    }
+
+    /**
+     * 清掉两级缓存并广播给其它实例
+     */
+    public void evict(Long topicId) {
+        localCache.invalidate(topicId);
+        redisTemplate.delete(DETAIL_KEY + topicId);
+        stringRedisTemplate.convertAndSend(EVICT_CHANNEL, topicId.toString());
+    }
+
+    // 收到其它实例(包括自己)的清除通知
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            localCache.invalidate(Long.parseLong(body));
+        } catch (NumberFormatException e) {
+            log.warn("忽略无效的详情缓存清除消息: {}", body);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package xyz.Brownie.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+import xyz.Brownie.bean.entity.Topic;
+import xyz.Brownie.mapper.TopicMapper;
+import xyz.Brownie.utils.RedisLock;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 首页排行榜,观看数和(置顶,点赞数)各一个ZSET,随计数增量同步更新
+ */
+@Service
+@RequiredArgsConstructor
+public class TopicRankService {
+    private static final Logger log = LoggerFactory.getLogger(TopicRankService.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final TopicMapper topicMapper;
+    private final TopicCountService topicCountService;
+    private final RedisLock redisLock;
+
+    private static final String VIEWS_RANK_KEY = "topic:rank:views";
+    // 分数 = is_top * TOP_WEIGHT + 点赞数,保证置顶帖排在前面
+    private static final String LIKES_RANK_KEY = "topic:rank:likes";
+    private static final double TOP_WEIGHT = 1_000_000_000_000d;
+    // 帖子卡片缓存
+    private static final String CARD_KEY = "topic:card:";
+    private static final long CARD_TTL_MINUTES = 10;
+    // 排行榜成员数低于帖子数的这个比例就认为key丢过,需要重建
+    private static final double MIN_COVERAGE = 0.9;
+    // 重建排行榜的锁,和TopicCountSyncTask的重建任务共用;同时重建会互相覆盖临时key
+    public static final String REBUILD_LOCK = "topic:rank:rebuild";
+    public static final long REBUILD_LEASE_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    // 只给已在排行榜里的帖子加分;ZINCRBY遇到不存在的key/成员会从0开始建,分数就不可信了
+    private static final DefaultRedisScript<String> INCR_IF_PRESENT_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('ZSCORE', KEYS[1], ARGV[1]) then "
+                    + "return redis.call('ZINCRBY', KEYS[1], ARGV[2], ARGV[1]) "
+                    + "end "
+                    + "return false",
+            String.class);
+
+    // 多个实例同时启动时只由一个实例检查和重建
+    @PostConstruct
+    public void init() {
+        try {
+            redisLock.runExclusively(REBUILD_LOCK, REBUILD_LEASE_MILLIS, this::rebuildIfIncomplete);
+        } catch (Exception e) {
+            log.error("初始化排行榜失败", e);
+        }
+    }
+
+    /**
+     * key不存在,或成员数远少于帖子数(key被清过后又被零星写入)时重建,返回是否重建了
+     */
+    public boolean rebuildIfIncomplete() {
+        long topicCount = topicMapper.selectCount(null);
+        // key不存在时ZCARD为0,也会落到这里
+        long minMembers = (long) Math.ceil(topicCount * MIN_COVERAGE);
+        if (cardinality(VIEWS_RANK_KEY) < minMembers || cardinality(LIKES_RANK_KEY) < minMembers) {
+            log.warn("排行榜不完整，帖子数: {}，开始重建", topicCount);
+            rebuild();
+            return true;
+        }
+        return false;
+    }
+
+    private long cardinality(String key) {
+        Long size = stringRedisTemplate.opsForZSet().zCard(key);
+        return size == null ? 0L : size;
+    }
+
+    /**
+     * 从topic表重建排行榜,分数为表中计数加上Redis中未同步的增量
+     */
+    public void rebuild() {
+        QueryWrapper<Topic> wrapper = new QueryWrapper<>();
+        wrapper.select("id", "number_of_views", "number_of_likes", "is_top");
+        List<Topic> topics = topicMapper.selectList(wrapper);
+        Map<Long, Integer> pendingViews = topicCountService.getViewsCountMap();
+        Map<Long, Integer> pendingLikes = topicCountService.getLikesCountMap();
+
+        Set<ZSetOperations.TypedTuple<String>> views = new HashSet<>();
+        Set<ZSetOperations.TypedTuple<String>> likes = new HashSet<>();
+        for (Topic topic : topics) {
+            String member = topic.getId().toString();
+            long viewCount = nullToZero(topic.getNumberOfViews()) + pendingViews.getOrDefault(topic.getId(), 0);
+            long likeCount = nullToZero(topic.getNumberOfLikes()) + pendingLikes.getOrDefault(topic.getId(), 0);
+            views.add(new DefaultTypedTuple<>(member, (double) viewCount));
+            likes.add(new DefaultTypedTuple<>(member, likesScore(topic.getIsTop(), likeCount)));
+        }
+        replace(VIEWS_RANK_KEY, views);
+        replace(LIKES_RANK_KEY, likes);
+        log.info("排行榜重建完成，帖子数: {}", topics.size());
+    }
+
+    // 先写临时key再rename,重建过程中排行榜一直可读
+    private void replace(String key, Set<ZSetOperations.TypedTuple<String>> tuples) {
+        if (tuples.isEmpty()) {
+            stringRedisTemplate.delete(key);
+            return;
+        }
+        String tmpKey = key + ":tmp";
+        stringRedisTemplate.delete(tmpKey);
+        stringRedisTemplate.opsForZSet().add(tmpKey, tuples);
+        stringRedisTemplate.rename(tmpKey, key);
+    }
+
+    // 计数变化,返回累加后的观看数;帖子不在排行榜里返回null,由调用方用表中计数加增量兜底
+    public Long incrementViews(Long topicId) {
+        Double score = incrementIfPresent(VIEWS_RANK_KEY, topicId);
+        return score == null ? null : score.longValue();
+    }
+
+    public void incrementLikes(Long topicId) {
+        incrementIfPresent(LIKES_RANK_KEY, topicId);
+    }
+
+    private Double incrementIfPresent(String key, Long topicId) {
+        String score = stringRedisTemplate.execute(INCR_IF_PRESENT_SCRIPT,
+                Collections.singletonList(key), topicId.toString(), "1");
+        return score == null ? null : Double.valueOf(score);
+    }
+
+    // 帖子变化
+    public void addTopic(Topic topic) {
+        String member = topic.getId().toString();
+        stringRedisTemplate.opsForZSet().add(VIEWS_RANK_KEY, member, 0);
+        stringRedisTemplate.opsForZSet().add(LIKES_RANK_KEY, member, likesScore(topic.getIsTop(), 0));
+    }
+
+    public void updateTop(Long topicId, Integer isTop) {
+        String member = topicId.toString();
+        Double score = stringRedisTemplate.opsForZSet().score(LIKES_RANK_KEY, member);
+        if (score == null || isTop == null) {
+            return;
+        }
+        long likeCount = (long) (score % TOP_WEIGHT);
+        stringRedisTemplate.opsForZSet().add(LIKES_RANK_KEY, member, likesScore(isTop, likeCount));
+    }
+
+    public void removeTopic(Long topicId) {
+        String member = topicId.toString();
+        stringRedisTemplate.opsForZSet().remove(VIEWS_RANK_KEY, member);
+        stringRedisTemplate.opsForZSet().remove(LIKES_RANK_KEY, member);
+        evictCard(topicId);
+    }
+
+    // 当前点赞数,不在排行榜里返回null
+    public Long getLikes(Long topicId) {
+        Double score = stringRedisTemplate.opsForZSet().score(LIKES_RANK_KEY, topicId.toString());
+        return score == null ? null : (long) (score % TOP_WEIGHT);
+    }
+
+    // 排行查询
+    public LinkedHashMap<Long, Long> topByViews(int n) {
+        return top(VIEWS_RANK_KEY, n, false);
+    }
+
+    public LinkedHashMap<Long, Long> topByLikes(int n) {
+        return top(LIKES_RANK_KEY, n, true);
+    }
+
+    private LinkedHashMap<Long, Long> top(String key, int n, boolean stripTop) {
+        LinkedHashMap<Long, Long> result = new LinkedHashMap<>();
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet().reverseRangeWithScores(key, 0, n - 1);
+        if (tuples == null) {
+            return result;
+        }
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            double score = tuple.getScore() == null ? 0 : tuple.getScore();
+            result.put(Long.parseLong(tuple.getValue()), (long) (stripTop ? score % TOP_WEIGHT : score));
+        }
+        return result;
+    }
+
+    /**
+     * 按给定顺序取帖子卡片,缓存中没有的一次性查库补齐
+     */
+    public List<Topic> getCards(Collection<Long> topicIds) {
+        List<Topic> result = new ArrayList<>();
+        if (topicIds == null || topicIds.isEmpty()) {
+            return result;
+        }
+        List<String> keys = new ArrayList<>();
+        for (Long topicId : topicIds) {
+            keys.add(CARD_KEY + topicId);
+        }
+        List<Object> cached = redisTemplate.opsForValue().multiGet(keys);
+        Map<Long, Topic> cards = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        int i = 0;
+        for (Long topicId : topicIds) {
+            Object card = cached == null ? null : cached.get(i);
+            if (card instanceof Topic) {
+                cards.put(topicId, (Topic) card);
+            } else {
+                missing.add(topicId);
+            }
+            i++;
+        }
+        if (!missing.isEmpty()) {
+            for (Topic topic : topicMapper.selectBatchIds(missing)) {
+                cards.put(topic.getId(), topic);
+                redisTemplate.opsForValue().set(CARD_KEY + topic.getId(), topic, CARD_TTL_MINUTES, TimeUnit.MINUTES);
+            }
+        }
+        for (Long topicId : topicIds) {
+            Topic topic = cards.get(topicId);
+            if (topic != null) {
+                result.add(topic);
+            }
+        }
+        return result;
+    }
+
+    public void evictCard(Long topicId) {
+        redisTemplate.delete(CARD_KEY + topicId);
+    }
+
+    private static double likesScore(Integer isTop, long likeCount) {
+        return (isTop == null ? 0 : isTop) * TOP_WEIGHT + likeCount;
+    }
+
+    private static long nullToZero(Long value) {
+        return value == null ? 0L : value;
+    }
+}
@@ -0,0 +1,335 @@
+package xyz.Brownie.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import xyz.Brownie.bean.entity.Topic;
+import xyz.Brownie.mapper.TopicMapper;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 帖子标题和简介的内存倒排索引,中文按单字加二元切词,英文和数字按整词并额外收录前缀和字母/数字分段,
+ * 关键词"java"能搜到"JavaScript"、"Java8",但词中间的片段(如"script")搜不到;
+ * 发布/修改/删除时同步更新,关键词搜索只查索引,数据库只负责按id取数据;
+ * 索引在每个实例的内存里,变更通过Redis频道广播,其它实例收到后按id查库更新自己的索引
+ */
+@Service
+@RequiredArgsConstructor
+public class TopicSearchService implements MessageListener {
+    private static final Logger log = LoggerFactory.getLogger(TopicSearchService.class);
+
+    public static final String INDEX_CHANNEL = "topic:search:index";
+    private static final String OP_INDEX = "index:";
+    private static final String OP_REMOVE = "remove:";
+
+    private final TopicMapper topicMapper;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    // 标题命中的权重高于简介
+    private static final int TITLE_WEIGHT = 3;
+    private static final int SYNOPSIS_WEIGHT = 1;
+    // 启动时分批加载
+    private static final int LOAD_BATCH_SIZE = 1000;
+    // 英文/数字词收录的前缀长度范围,单个字母太泛不收,超长的串(链接、哈希)只收到这个长度
+    private static final int MIN_PREFIX = 2;
+    private static final int MAX_PREFIX = 20;
+
+    // 词 -> (帖子id -> 加权词频)
+    private final Map<String, Map<Long, Integer>> postings = new HashMap<>();
+    // 帖子id -> 该帖子的词,修改/删除时据此清理倒排表
+    private final Map<Long, Set<String>> docTerms = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @PostConstruct
+    public void init() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.error("初始化搜索索引失败", e);
+        }
+    }
+
+    /**
+     * 从topic表按id分批重建索引
+     */
+    public void rebuild() {
+        Map<String, Map<Long, Integer>> newPostings = new HashMap<>();
+        Map<Long, Set<String>> newDocTerms = new HashMap<>();
+        long lastId = 0;
+        while (true) {
+            QueryWrapper<Topic> wrapper = new QueryWrapper<>();
+            wrapper.select("id", "title", "synopsis")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + LOAD_BATCH_SIZE);
+            List<Topic> topics = topicMapper.selectList(wrapper);
+            for (Topic topic : topics) {
+                addTo(newPostings, newDocTerms, topic.getId(), topic.getTitle(), topic.getSynopsis());
+                lastId = topic.getId();
+            }
+            if (topics.size() < LOAD_BATCH_SIZE) {
+                break;
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            postings.putAll(newPostings);
+            docTerms.clear();
+            docTerms.putAll(newDocTerms);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("搜索索引重建完成，帖子数: {}，词数: {}", newDocTerms.size(), newPostings.size());
+    }
+
+    // 新增或修改帖子,本机立即生效,再通知其它实例
+    public void index(Topic topic) {
+        if (topic == null || topic.getId() == null) {
+            return;
+        }
+        indexLocal(topic.getId(), topic.getTitle(), topic.getSynopsis());
+        stringRedisTemplate.convertAndSend(INDEX_CHANNEL, OP_INDEX + topic.getId());
+    }
+
+    // 删除帖子
+    public void remove(Long topicId) {
+        if (topicId == null) {
+            return;
+        }
+        removeLocal(topicId);
+        stringRedisTemplate.convertAndSend(INDEX_CHANNEL, OP_REMOVE + topicId);
+    }
+
+    // 收到其它实例(包括自己)的变更通知,按库里的最新内容重建这个帖子的索引
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            if (body.startsWith(OP_INDEX)) {
+                Long topicId = Long.parseLong(body.substring(OP_INDEX.length()));
+                QueryWrapper<Topic> wrapper = new QueryWrapper<>();
+                wrapper.select("id", "title", "synopsis").eq("id", topicId);
+                Topic topic = topicMapper.selectOne(wrapper);
+                if (topic == null) {
+                    removeLocal(topicId);
+                } else {
+                    indexLocal(topic.getId(), topic.getTitle(), topic.getSynopsis());
+                }
+            } else if (body.startsWith(OP_REMOVE)) {
+                removeLocal(Long.parseLong(body.substring(OP_REMOVE.length())));
+            } else {
+                log.warn("忽略无效的搜索索引消息: {}", body);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("忽略无效的搜索索引消息: {}", body);
+        } catch (Exception e) {
+            log.error("处理搜索索引消息失败: {}", body, e);
+        }
+    }
+
+    private void indexLocal(Long topicId, String title, String synopsis) {
+        lock.writeLock().lock();
+        try {
+            removeFrom(postings, docTerms, topicId);
+            addTo(postings, docTerms, topicId, title, synopsis);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeLocal(Long topicId) {
+        lock.writeLock().lock();
+        try {
+            removeFrom(postings, docTerms, topicId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按相关度返回命中的帖子id,关键词的每个词都要命中;
+     * 从最短的倒排表开始求交集,耗时取决于命中数而不是帖子总数
+     */
+    public List<Long> search(String keyWord, int limit) {
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(tokenize(keyWord, false)));
+        if (terms.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        Map<Long, Double> scores = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            List<Map<Long, Integer>> lists = new ArrayList<>();
+            for (String term : terms) {
+                Map<Long, Integer> list = postings.get(term);
+                if (list == null) {
+                    return Collections.emptyList();
+                }
+                lists.add(list);
+            }
+            lists.sort(Comparator.comparingInt(Map::size));
+            int docCount = docTerms.size();
+            Map<Long, Integer> shortest = lists.get(0);
+            for (Map.Entry<Long, Integer> entry : shortest.entrySet()) {
+                Long topicId = entry.getKey();
+                double score = 0;
+                boolean matched = true;
+                for (Map<Long, Integer> list : lists) {
+                    Integer tf = list.get(topicId);
+                    if (tf == null) {
+                        matched = false;
+                        break;
+                    }
+                    score += tf * Math.log(1 + (double) docCount / list.size());
+                }
+                if (matched) {
+                    scores.put(topicId, score);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        PriorityQueue<Map.Entry<Long, Double>> heap = new PriorityQueue<>(
+                Comparator.<Map.Entry<Long, Double>>comparingDouble(Map.Entry::getValue)
+                        .thenComparing(Map.Entry::getKey));
+        for (Map.Entry<Long, Double> entry : scores.entrySet()) {
+            heap.offer(entry);
+            if (heap.size() > limit) {
+                heap.poll();
+            }
+        }
+        LinkedList<Long> result = new LinkedList<>();
+        while (!heap.isEmpty()) {
+            result.addFirst(heap.poll().getKey());
+        }
+        return result;
+    }
+
+    private static void addTo(Map<String, Map<Long, Integer>> postings, Map<Long, Set<String>> docTerms,
+                              Long topicId, String title, String synopsis) {
+        Map<String, Integer> tf = new HashMap<>();
+        for (String term : tokenize(title, true)) {
+            tf.merge(term, TITLE_WEIGHT, Integer::sum);
+        }
+        for (String term : tokenize(synopsis, true)) {
+            tf.merge(term, SYNOPSIS_WEIGHT, Integer::sum);
+        }
+        if (tf.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, Integer> entry : tf.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), k -> new HashMap<>()).put(topicId, entry.getValue());
+        }
+        docTerms.put(topicId, new HashSet<>(tf.keySet()));
+    }
+
+    private static void removeFrom(Map<String, Map<Long, Integer>> postings, Map<Long, Set<String>> docTerms,
+                                   Long topicId) {
+        Set<String> terms = docTerms.remove(topicId);
+        if (terms == null) {
+            return;
+        }
+        for (String term : terms) {
+            Map<Long, Integer> list = postings.get(term);
+            if (list != null) {
+                list.remove(topicId);
+                if (list.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+
+    /**
+     * 切词: 连续的中日韩字符切成相邻二字词,连续的字母数字作为一个词并转小写,其它字符作分隔;
+     * 建索引时额外收录中文单字,以及英文/数字词的前缀和字母/数字分段("java8"收录java8、ja、jav、java、8),
+     * 这样只有一个字的关键词、词的开头部分都能命中;查询时只按整词切,靠索引里的前缀去匹配
+     */
+    static List<String> tokenize(String text, boolean forIndex) {
+        List<String> terms = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return terms;
+        }
+        StringBuilder word = new StringBuilder();
+        StringBuilder cjk = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (isCjk(c)) {
+                flushWord(word, terms, forIndex);
+                cjk.append(c);
+            } else if (Character.isLetterOrDigit(c)) {
+                flushCjk(cjk, terms, forIndex);
+                word.append(Character.toLowerCase(c));
+            } else {
+                flushWord(word, terms, forIndex);
+                flushCjk(cjk, terms, forIndex);
+            }
+        }
+        flushWord(word, terms, forIndex);
+        flushCjk(cjk, terms, forIndex);
+        return terms;
+    }
+
+    private static void flushWord(StringBuilder word, List<String> terms, boolean forIndex) {
+        if (word.length() == 0) {
+            return;
+        }
+        String w = word.toString();
+        word.setLength(0);
+        if (!forIndex) {
+            terms.add(w);
+            return;
+        }
+        // 去重,前缀和分段重合时(java8的前缀java和字母段java)词频不重复计
+        Set<String> expanded = new LinkedHashSet<>();
+        expanded.add(w);
+        addPrefixes(w, expanded);
+        int start = 0;
+        for (int i = 1; i <= w.length(); i++) {
+            if (i == w.length() || Character.isDigit(w.charAt(i)) != Character.isDigit(w.charAt(i - 1))) {
+                if (start > 0 || i < w.length()) {
+                    String run = w.substring(start, i);
+                    expanded.add(run);
+                    addPrefixes(run, expanded);
+                }
+                start = i;
+            }
+        }
+        terms.addAll(expanded);
+    }
+
+    private static void addPrefixes(String w, Set<String> terms) {
+        for (int len = MIN_PREFIX; len < w.length() && len <= MAX_PREFIX; len++) {
+            terms.add(w.substring(0, len));
+        }
+    }
+
+    private static void flushCjk(StringBuilder cjk, List<String> terms, boolean forIndex) {
+        if (forIndex || cjk.length() == 1) {
+            for (int i = 0; i < cjk.length(); i++) {
+                terms.add(String.valueOf(cjk.charAt(i)));
+            }
+        }
+        for (int i = 0; i + 1 < cjk.length(); i++) {
+            terms.add(cjk.substring(i, i + 2));
+        }
+        cjk.setLength(0);
+    }
+
+    private static boolean isCjk(char c) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(c);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
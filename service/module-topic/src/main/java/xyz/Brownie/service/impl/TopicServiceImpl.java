@@ -7,24 +7,33 @@ import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.DigestUtils;
 import org.springframework.util.StringUtils;
-import xyz.Brownie.bean.entity.User;
-import xyz.Brownie.client.CommentClient;
+import xyz.Brownie.bean.entity.Tag;
 import xyz.Brownie.client.TagClient;
-import xyz.Brownie.client.UserClient;
+import xyz.Brownie.constants.Constants;
 import xyz.Brownie.exception.EmptyContentException;
 import xyz.Brownie.constants.ResponseCode;
+import xyz.Brownie.utils.CursorUtils;
 import xyz.Brownie.utils.Result;
+import xyz.Brownie.utils.UserProfileCache;
 import xyz.Brownie.bean.dto.TopicDto;
 import xyz.Brownie.bean.entity.Topic;
 import xyz.Brownie.bean.entity.TopicTag;
 import xyz.Brownie.mapper.TopicMapper;
-import xyz.Brownie.mapper.TopicTagMapper;
 import xyz.Brownie.service.TopicService;
 import xyz.Brownie.service.TopicTagService;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 
 /**
@@ -40,15 +49,29 @@ public class TopicServiceImpl extends ServiceImpl<TopicMapper, Topic>
     @Autowired
     private TopicTagService topicTagService;
     @Autowired
-    private UserClient userClient;
-    @Autowired
     private TagClient tagClient;
     @Autowired
-    private TopicTagMapper topicTagMapper;
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private TopicCountService topicCountService;
+    @Autowired
+    private TopicRankService topicRankService;
+    @Autowired
+    private TopicTrendingService topicTrendingService;
+    @Autowired
+    private TopicSearchService topicSearchService;
     @Autowired
-    private CommentClient commentClient;
+    private TopicDetailCache topicDetailCache;
+    @Autowired
+    private UserProfileCache userProfileCache;
 
     private Map resNo;
+    //关键词搜索最多取的命中数,超出的按相关度截掉;截断时Search/SelectSome的总数只是下限,
+    //应答里的searchTruncated/fuzzyTruncated会置为true
+    private static final int MAX_SEARCH_HITS = 1000;
+    //游标分页的总数缓存
+    private static final String FEED_COUNT_KEY = "topic:feed:count:";
+    private static final long FEED_COUNT_TTL_MINUTES = 5;
     private Map resYes;
 
     public List<Topic> searchTopic(TopicDto topicDto) {
@@ -79,10 +102,10 @@ public class TopicServiceImpl extends ServiceImpl<TopicMapper, Topic>
                 throw new EmptyContentException(msg);
             }else if (save(topic)){
                 topicTagService.save(new TopicTag(topic.getId(),topic.getTagId(),topic.getIsDelete()));
-                Long createUserId = topic.getCreateUserId();
-                User user = userClient.getUserById(createUserId);
-                topic.setNickName(user.getName());
-                topic.setAvatar(user.getAvatar());
+                topicRankService.addTopic(topic);
+                topicTrendingService.onPublish(topic.getId());
+                topicSearchService.index(topic);
+                fillUserInfo(Collections.singletonList(topic));
                 // resYes.put("topic",topic);
             }
         } catch (EmptyContentException e) {
@@ -105,6 +128,10 @@ public class TopicServiceImpl extends ServiceImpl<TopicMapper, Topic>
                 LambdaQueryWrapper<TopicTag> wrapper = new LambdaQueryWrapper<>();
                 wrapper.eq(TopicTag::getTopicId,ids);
                 topicTagService.remove(wrapper);
+                topicRankService.removeTopic(ids);
+                topicTrendingService.remove(ids);
+                topicSearchService.remove(ids);
+                topicDetailCache.evict(ids);
                 resYes.put("msg","删除成功!");
             }
         } catch (Exception e) {
@@ -142,6 +169,10 @@ public class TopicServiceImpl extends ServiceImpl<TopicMapper, Topic>
                 UpdateWrapper<TopicTag> wrapper = new UpdateWrapper<>();
                 wrapper.eq("topic_id",topic.getId()).set("tag_id",topic.getTagId());
                 topicTagService.update(null,wrapper);
+                topicRankService.evictCard(topic.getId());
+                topicRankService.updateTop(topic.getId(), topic.getIsTop());
+                topicSearchService.index(topic);
+                topicDetailCache.evict(topic.getId());
                 resYes.put("topic",topic);
             }
         } catch (EmptyContentException e) {
@@ -158,65 +189,31 @@ public class TopicServiceImpl extends ServiceImpl<TopicMapper, Topic>
         resNo = new HashMap();
         resYes = new HashMap();
         LambdaQueryWrapper<Topic> topicWrapper = new LambdaQueryWrapper<>();
-        List<Long> topicIds = new ArrayList<>();
         Page<Topic> page = null;
         String msg = "某一处出现错误请检查!";
         try {
-            if (!(topicDto.getTagId() == null)) {
-                QueryWrapper<TopicTag> wrapper = new QueryWrapper<>();
-                wrapper.eq("tag_id", topicDto.getTagId());
-                List<TopicTag> topicTags = topicTagMapper.selectList(wrapper);
-                for (int i = 0; i < topicTags.size(); i++) {
-                    topicIds.add(topicTags.get(i).getTopicId());
-                }
-                topicWrapper.in(Topic::getId, topicIds);
-            }
-            topicWrapper.gt(StringUtils.hasText(topicDto.getStartTime()),Topic::getCreateTime, topicDto.getStartTime())
-                    .le(StringUtils.hasText(topicDto.getEndTime()),Topic::getCreateTime,topicDto.getEndTime())
-                    .eq(StringUtils.hasText(topicDto.getIsVideo()), Topic::getIsVideo, topicDto.getIsVideo())
-                    .orderByDesc(StringUtils.isEmpty(topicDto.getIsTime()) || topicDto.getIsTime().equals("0"), Topic::getNumberOfViews)
-                    .orderByDesc(topicDto.getIsTime().equals("1"), Topic::getCreateTime);
-            if (StringUtils.hasText(topicDto.getKeyWord())) {
-                topicWrapper.and(qw -> qw.like(Topic::getTitle, topicDto.getKeyWord())
-                        .or()
-                        .like(Topic::getSynopsis, topicDto.getKeyWord()));
-            }
-            if (StringUtils.hasText(topicDto.getWithTime())){
-                String withTime = topicDto.getWithTime();
-                switch (withTime){
-                    case "0":
-                        break;
-                    case "1":
-                        topicWrapper.apply(true, "DATE_SUB(CURDATE(), INTERVAL 1 DAY) <= date(create_time)");
-                        break;
-                    case "2":
-                        topicWrapper.apply(true, "DATE_SUB(CURDATE(), INTERVAL 7 DAY) <= date(create_time)");
-                        break;
-                    case "3":
-                        topicWrapper.apply(true, "DATE_SUB(CURDATE(), INTERVAL 30 DAY) <= date(create_time)");
-                        break;
-                    default:
-                        break;
-                }
+            List<Long> hitIds = keywordHits(topicDto);
+            if (hitIds != null && hitIds.isEmpty()) {
+                resYes.put("fuzzyList",new ArrayList<>());
+                resYes.put("fuzzyTotal",0);
+                resYes.put("fuzzyTruncated",false);
+                return Result.suc(ResponseCode.Code200,resYes);
             }
+            //关键词命中超过上限时只在前MAX_SEARCH_HITS个里筛选,总数不精确
+            boolean truncated = hitIds != null && hitIds.size() > MAX_SEARCH_HITS;
+            applyFuzzyFilter(topicWrapper, topicDto, truncated ? hitIds.subList(0, MAX_SEARCH_HITS) : hitIds);
+            topicWrapper.orderByDesc(StringUtils.isEmpty(topicDto.getIsTime()) || topicDto.getIsTime().equals("0"), Topic::getNumberOfViews)
+                    .orderByDesc("1".equals(topicDto.getIsTime()), Topic::getCreateTime);
             page = new Page<>(topicDto.getCurrent(), 6);
 
-            Page<Topic> topicPage = topicMapper.selectPage(page, topicWrapper);
+            Page<Topic> topicPage = topicMapper.selectPageWithTag(page, topicWrapper);
             List<Topic> topicList = topicPage.getRecords();
-            for (int i = 0; i < topicList.size(); i++) {
-
-                User user = userClient.getUserById(topicList.get(i).getCreateUserId());
-                topicList.get(i).setNickName(user.getName());
-                topicList.get(i).setAvatar(user.getAvatar());
-
-                LambdaQueryWrapper<TopicTag> queryWrapper = new LambdaQueryWrapper<>();
-                queryWrapper.eq(TopicTag::getTopicId,topicList.get(i).getId());
-                TopicTag topicTag = topicTagMapper.selectOne(queryWrapper);
-                topicList.get(i).setTagName(tagClient.getTagName(topicTag.getTagId()));
-                topicList.get(i).setComments(commentClient.getCommentNum(topicList.get(i).getId()));
-            }
+            fillUserInfo(topicList);
+            fillTagName(topicList);
+            fillComments(topicList);
             resYes.put("fuzzyList",topicList);
             resYes.put("fuzzyTotal",(int)topicPage.getTotal());
+            resYes.put("fuzzyTruncated",truncated);
         }catch (Exception e) {
             e.printStackTrace();
             resNo.put("msg",msg);
@@ -225,37 +222,174 @@ public class TopicServiceImpl extends ServiceImpl<TopicMapper, Topic>
         return Result.suc(ResponseCode.Code200,resYes);
     }
 
-    //帖子的点赞
+    //关键词搜索,按相关度排序
     @Override
-    public Result addlikes(Long id){
+    public Result Search(String keyWord, Integer current, Integer size) {
         resNo = new HashMap();
         resYes = new HashMap();
-        if(topicMapper.updatelikes(id) == 0){
-            resNo.put("data","未能点赞");
-            Result.fail(ResponseCode.Code402,resNo);
+        try {
+            int pageSize = size == null || size <= 0 ? 10 : Math.min(size, 50);
+            int pageNum = current == null || current <= 0 ? 1 : current;
+            //多取一个用来判断是否截断
+            List<Long> hitIds = topicSearchService.search(keyWord, MAX_SEARCH_HITS + 1);
+            boolean truncated = hitIds.size() > MAX_SEARCH_HITS;
+            if (truncated) {
+                hitIds = hitIds.subList(0, MAX_SEARCH_HITS);
+            }
+            int from = Math.min((pageNum - 1) * pageSize, hitIds.size());
+            int to = Math.min(from + pageSize, hitIds.size());
+            List<Topic> topics = topicRankService.getCards(hitIds.subList(from, to));
+            fillUserInfo(topics);
+            resYes.put("searchList",topics);
+            resYes.put("searchTotal",hitIds.size());
+            resYes.put("searchTruncated",truncated);
+        } catch (Exception e) {
+            e.printStackTrace();
+            resNo.put("msg","出现错误!");
+            return Result.fail(ResponseCode.Code402,resNo);
         }
-        resYes.put("data","成功");
         return Result.suc(ResponseCode.Code200,resYes);
     }
-    //帖子的观看数
-    public Result addviews(Long id) {
+
+    //模糊查询(游标分页),按观看数或发布时间倒序,同值再按id倒序
+    @Override
+    public Result SelectSomeByCursor(TopicDto topicDto) {
         resNo = new HashMap();
         resYes = new HashMap();
-        if (topicMapper.updateviews(id) != 0) {
-            Topic topic = topicMapper.selectById(id);
-            Long numberOfViews = null;
-            try {
-                numberOfViews = topic.getNumberOfViews();
-            } catch (Exception e) {
-                String msg = "估计是is_delete为0,反正就是出错啦!";
-                System.out.println(msg);
-                resNo.put("msg",msg);
-                return Result.fail(ResponseCode.Code402,resNo);
+        try {
+            List<Long> hitIds = keywordHits(topicDto);
+            if (hitIds != null && hitIds.isEmpty()) {
+                resYes.put("fuzzyList",new ArrayList<>());
+                resYes.put("fuzzyTotal",0);
+                resYes.put("fuzzyTruncated",false);
+                resYes.put("nextCursor",null);
+                return Result.suc(ResponseCode.Code200,resYes);
+            }
+            //关键词命中超过上限时只在前MAX_SEARCH_HITS个里筛选,总数不精确
+            boolean truncated = hitIds != null && hitIds.size() > MAX_SEARCH_HITS;
+            List<Long> filterIds = truncated ? hitIds.subList(0, MAX_SEARCH_HITS) : hitIds;
+            int pageSize = cursorPageSize(topicDto.getPageSize());
+            boolean byTime = "1".equals(topicDto.getIsTime());
+            long[] after = CursorUtils.decode(topicDto.getCursor(), 2);
+            LambdaQueryWrapper<Topic> wrapper = new LambdaQueryWrapper<>();
+            applyFuzzyFilter(wrapper, topicDto, filterIds);
+            if (byTime) {
+                if (after != null) {
+                    wrapper.apply("(a.create_time < {0} or (a.create_time = {0} and a.id < {1}))", new Date(after[0]), after[1]);
+                }
+                wrapper.last("order by a.create_time desc, a.id desc limit " + (pageSize + 1));
+            } else {
+                if (after != null) {
+                    wrapper.apply("(a.number_of_views < {0} or (a.number_of_views = {0} and a.id < {1}))", after[0], after[1]);
+                }
+                wrapper.last("order by a.number_of_views desc, a.id desc limit " + (pageSize + 1));
+            }
+            List<Topic> topicList = topicMapper.selectListWithTag(wrapper);
+            String nextCursor = null;
+            if (topicList.size() > pageSize) {
+                topicList = new ArrayList<>(topicList.subList(0, pageSize));
+                Topic last = topicList.get(pageSize - 1);
+                nextCursor = byTime
+                        ? CursorUtils.encode(last.getCreateTime().getTime(), last.getId())
+                        : CursorUtils.encode(nullToZero(last.getNumberOfViews()), last.getId());
+            }
+            //总数与游标无关,按筛选条件缓存
+            String filterKey = topicDto.getKeyWord() + "|" + topicDto.getStartTime() + "|" + topicDto.getEndTime() + "|"
+                    + topicDto.getTagId() + "|" + topicDto.getIsVideo() + "|" + topicDto.getWithTime();
+            long total = cachedCount("fuzzy:" + DigestUtils.md5DigestAsHex(filterKey.getBytes(StandardCharsets.UTF_8)), () -> {
+                LambdaQueryWrapper<Topic> countWrapper = new LambdaQueryWrapper<>();
+                applyFuzzyFilter(countWrapper, topicDto, filterIds);
+                return topicMapper.countWithTag(countWrapper);
+            });
+            fillUserInfo(topicList);
+            fillTagName(topicList);
+            fillComments(topicList);
+            resYes.put("fuzzyList",topicList);
+            resYes.put("fuzzyTotal",(int)total);
+            resYes.put("fuzzyTruncated",truncated);
+            resYes.put("nextCursor",nextCursor);
+        } catch (IllegalArgumentException e) {
+            resNo.put("msg","游标无效,请刷新页面");
+            return Result.fail(ResponseCode.Code402,resNo);
+        } catch (Exception e) {
+            e.printStackTrace();
+            resNo.put("msg","某一处出现错误请检查!");
+            return Result.fail(ResponseCode.Code402,resNo);
+        }
+        return Result.suc(ResponseCode.Code200,resYes);
+    }
+
+    //关键词命中的帖子id,没有关键词返回null;多取一个,超过MAX_SEARCH_HITS说明被截断了
+    private List<Long> keywordHits(TopicDto topicDto) {
+        if (!StringUtils.hasText(topicDto.getKeyWord())) {
+            return null;
+        }
+        return topicSearchService.search(topicDto.getKeyWord(), MAX_SEARCH_HITS + 1);
+    }
+
+    //模糊查询的筛选条件,标签表在selectPageWithTag/selectListWithTag里连接为b
+    private void applyFuzzyFilter(LambdaQueryWrapper<Topic> topicWrapper, TopicDto topicDto, List<Long> hitIds) {
+        if (!(topicDto.getTagId() == null)) {
+            topicWrapper.apply("b.tag_id = {0}", topicDto.getTagId());
+        }
+        topicWrapper.gt(StringUtils.hasText(topicDto.getStartTime()),Topic::getCreateTime, topicDto.getStartTime())
+                .le(StringUtils.hasText(topicDto.getEndTime()),Topic::getCreateTime,topicDto.getEndTime())
+                .eq(StringUtils.hasText(topicDto.getIsVideo()), Topic::getIsVideo, topicDto.getIsVideo());
+        if (hitIds != null) {
+            //关键词走倒排索引,数据库只按命中的id过滤
+            topicWrapper.apply("a.id in (" + hitIds.stream().map(String::valueOf).collect(Collectors.joining(",")) + ")");
+        }
+        if (StringUtils.hasText(topicDto.getWithTime())){
+            String withTime = topicDto.getWithTime();
+            //起点在Java里算好,直接比较create_time才能走索引
+            switch (withTime){
+                case "0":
+                    break;
+                case "1":
+                    topicWrapper.ge(Topic::getCreateTime, daysAgo(1));
+                    break;
+                case "2":
+                    topicWrapper.ge(Topic::getCreateTime, daysAgo(7));
+                    break;
+                case "3":
+                    topicWrapper.ge(Topic::getCreateTime, daysAgo(30));
+                    break;
+                default:
+                    break;
             }
-            resYes.put("data",numberOfViews);
-            return Result.suc(ResponseCode.Code200,resYes);
         }
-        return Result.fail(ResponseCode.Code402,resNo);
+    }
+
+    //n天前的零点,与原来的DATE_SUB(CURDATE(), INTERVAL n DAY) <= date(create_time)范围一致
+    private static Date daysAgo(int days) {
+        return Date.from(LocalDate.now().minusDays(days).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
+    //帖子的点赞,点赞用户记在Redis的Set里,点赞数由TopicCountSyncTask批量写回
+    @Override
+    public Result addlikes(Long id, String account){
+        resNo = new HashMap();
+        resYes = new HashMap();
+        //点赞人取网关校验过token后转发的登录账号,不信任请求参数
+        if (!StringUtils.hasText(account)) {
+            resNo.put("data","请先登录");
+            return Result.fail(ResponseCode.Code402,resNo);
+        }
+        if(!topicCountService.addLike(id, account)){
+            resNo.put("data","已经点过赞了");
+            return Result.fail(ResponseCode.Code402,resNo);
+        }
+        topicRankService.incrementLikes(id);
+        topicTrendingService.onLike(id);
+        resYes.put("data","成功");
+        return Result.suc(ResponseCode.Code200,resYes);
+    }
+    //帖子的观看数,先累加在Redis,由TopicCountSyncTask批量写回;返回排行榜里累加后的观看数,不在排行榜里返回null
+    private Long addviews(Long id) {
+        topicCountService.incrementViews(id);
+        Long ranked = topicRankService.incrementViews(id);
+        topicTrendingService.onView(id);
+        return ranked;
     }
     //帖子详情
     @Override
@@ -264,16 +398,24 @@ public class TopicServiceImpl extends ServiceImpl<TopicMapper, Topic>
         try {
             resNo = new HashMap();
             resYes = new HashMap();
-            topic = topicMapper.selectById(id);
-            Long createUserId = topic.getCreateUserId();
-            User user = userClient.getUserById(createUserId);
-            List<TopicTag> topicTags = topicTagService.list(new LambdaQueryWrapper<TopicTag>().eq(TopicTag::getTopicId, id));
-            Long tagId = topicTags.get(0).getTagId();
-//            topic.setTagName(tagClient.getTagName(tagId));
-            topic.setTagId(tagId);
-            topic.setNickName(user.getName());
-            topic.setAvatar(user.getAvatar());
-            addviews(id);
+            topic = topicDetailCache.get(id, this::loadDetail);
+            //作者资料单独缓存,改昵称头像后不用等详情缓存过期
+            fillUserInfo(Collections.singletonList(topic));
+            //详情缓存里不带计数,以排行榜为准;不在排行榜里时查库取已写回的计数再加上未同步的增量,
+            //增量写回后不会因为缓存里的旧计数变少
+            Long views = addviews(id);
+            Long likes = topicRankService.getLikes(id);
+            if (views == null || likes == null) {
+                Topic counts = loadCounts(id);
+                if (views == null) {
+                    views = nullToZero(counts.getNumberOfViews()) + topicCountService.getPendingViews(id);
+                }
+                if (likes == null) {
+                    likes = nullToZero(counts.getNumberOfLikes()) + topicCountService.getPendingLikes(id);
+                }
+            }
+            topic.setNumberOfViews(views);
+            topic.setNumberOfLikes(likes);
             resYes.put("topic",topic);
         } catch (Exception e) {
             resNo.put("msg","出现错误!");
@@ -281,6 +423,25 @@ public class TopicServiceImpl extends ServiceImpl<TopicMapper, Topic>
         }
         return Result.suc(ResponseCode.Code200,resYes);
     }
+    //只查两个计数列,帖子被删时按0算
+    private Topic loadCounts(Long id) {
+        QueryWrapper<Topic> wrapper = new QueryWrapper<>();
+        wrapper.select("id", "number_of_views", "number_of_likes").eq("id", id);
+        Topic counts = topicMapper.selectOne(wrapper);
+        return counts != null ? counts : new Topic();
+    }
+    //查库拼出帖子详情(标签),结果进TopicDetailCache
+    private Topic loadDetail(Long id) {
+        Topic topic = topicMapper.selectById(id);
+        if (topic == null) {
+            return null;
+        }
+        List<TopicTag> topicTags = topicTagService.list(new LambdaQueryWrapper<TopicTag>().eq(TopicTag::getTopicId, id));
+        Long tagId = topicTags.get(0).getTagId();
+//            topic.setTagName(tagClient.getTagName(tagId));
+        topic.setTagId(tagId);
+        return topic;
+    }
     //官方发的帖子
     @Override
     public Result HostOfTopic(int curPage,int pageSize) {
@@ -293,9 +454,7 @@ public class TopicServiceImpl extends ServiceImpl<TopicMapper, Topic>
         try {
             Page<Topic> topicPage = topicMapper.selectPage(page, wrapper);
             List<Topic> list = topicPage.getRecords();
-            for(Topic tb : list){
-                tb.setComments(commentClient.getCommentNum(tb.getId()));
-            }
+            fillComments(list);
             long total = topicPage.getTotal();
             resYes.put("hostList",list);
             resYes.put("hostTotal",(int)total);
@@ -320,19 +479,12 @@ public class TopicServiceImpl extends ServiceImpl<TopicMapper, Topic>
 //        wrapper.apply(true, "DATE_SUB(CURDATE(), INTERVAL 30 DAY) <= date(create_time)");
         Page<Topic> page = new Page<>(current, pageSize);
         try {
-            Page<Topic> topic = topicMapper.selectPage(page, wrapper);
+            Page<Topic> topic = topicMapper.selectPageWithTag(page, wrapper);
             List<Topic> records = topic.getRecords();
             resYes.put("total",(int)topic.getTotal());
-            for (int i = 0; i < records.size(); i++) {
-                User user = userClient.getUserById(records.get(i).getCreateUserId());
-                records.get(i).setNickName(user.getName());
-                records.get(i).setAvatar(user.getAvatar());
-                LambdaQueryWrapper<TopicTag> queryWrapper = new LambdaQueryWrapper<>();
-                queryWrapper.eq(TopicTag::getTopicId,records.get(i).getId());
-                TopicTag topicTag = topicTagMapper.selectOne(queryWrapper);
-                records.get(i).setTagName(tagClient.getTagName(topicTag.getTagId()));
-                records.get(i).setComments(commentClient.getCommentNum(records.get(i).getId()));
-            }
+            fillUserInfo(records);
+            fillTagName(records);
+            fillComments(records);
             resYes.put("list",records);
 
         } catch (Exception e) {
@@ -341,17 +493,123 @@ public class TopicServiceImpl extends ServiceImpl<TopicMapper, Topic>
         }
         return Result.suc(ResponseCode.Code200,resYes);
     }
+    //官方发的帖子(游标分页),按发布时间倒序
+    @Override
+    public Result HostOfTopicByCursor(String cursor, Integer pageSize) {
+        resNo = new HashMap();
+        resYes = new HashMap();
+        try {
+            int size = cursorPageSize(pageSize);
+            long[] after = CursorUtils.decode(cursor, 2);
+            QueryWrapper<Topic> wrapper = new QueryWrapper<>();
+            wrapper.eq("create_user_id","0");
+            if (after != null) {
+                wrapper.apply("(create_time < {0} or (create_time = {0} and id < {1}))", new Date(after[0]), after[1]);
+            }
+            wrapper.orderByDesc("create_time").orderByDesc("id").last("limit " + (size + 1));
+            List<Topic> list = topicMapper.selectList(wrapper);
+            String nextCursor = null;
+            if (list.size() > size) {
+                list = new ArrayList<>(list.subList(0, size));
+                Topic last = list.get(size - 1);
+                nextCursor = CursorUtils.encode(last.getCreateTime().getTime(), last.getId());
+            }
+            long total = cachedCount("host", () -> Long.valueOf(topicMapper.selectCount(
+                    new QueryWrapper<Topic>().eq("create_user_id","0"))));
+            fillComments(list);
+            resYes.put("hostList",list);
+            resYes.put("hostTotal",(int)total);
+            resYes.put("nextCursor",nextCursor);
+        } catch (IllegalArgumentException e) {
+            resNo.put("msg","游标无效,请刷新页面");
+            return Result.fail(ResponseCode.Code402,resNo);
+        } catch (Exception e) {
+            e.printStackTrace();
+            resNo.put("msg","出现错误!");
+            return Result.fail(ResponseCode.Code402,resNo);
+        }
+        return Result.suc(ResponseCode.Code200,resYes);
+    }
+
+    //双重排序(游标分页),按置顶,点赞数,id倒序
+    @Override
+    public Result SelectChooseByCursor(String cursor, Integer pageSize) {
+        resNo = new HashMap();
+        resYes = new HashMap();
+        try {
+            int size = cursorPageSize(pageSize);
+            long[] after = CursorUtils.decode(cursor, 3);
+            QueryWrapper<Topic> wrapper = new QueryWrapper<>();
+            if (after != null) {
+                wrapper.apply("(a.is_top < {0} or (a.is_top = {0} and (a.number_of_likes < {1}"
+                        + " or (a.number_of_likes = {1} and a.id < {2}))))", after[0], after[1], after[2]);
+            }
+            wrapper.last("order by a.is_top desc, a.number_of_likes desc, a.id desc limit " + (size + 1));
+            List<Topic> records = topicMapper.selectListWithTag(wrapper);
+            String nextCursor = null;
+            if (records.size() > size) {
+                records = new ArrayList<>(records.subList(0, size));
+                Topic last = records.get(size - 1);
+                nextCursor = CursorUtils.encode(last.getIsTop() == null ? 0 : last.getIsTop(),
+                        nullToZero(last.getNumberOfLikes()), last.getId());
+            }
+            long total = cachedCount("choose", () -> Long.valueOf(topicMapper.selectCount(null)));
+            fillUserInfo(records);
+            fillTagName(records);
+            fillComments(records);
+            resYes.put("list",records);
+            resYes.put("total",(int)total);
+            resYes.put("nextCursor",nextCursor);
+        } catch (IllegalArgumentException e) {
+            resNo.put("msg","游标无效,请刷新页面");
+            return Result.fail(ResponseCode.Code402,resNo);
+        } catch (Exception e) {
+            e.printStackTrace();
+            resNo.put("msg","出现错误!");
+            return Result.fail(ResponseCode.Code402,resNo);
+        }
+        return Result.suc(ResponseCode.Code200,resYes);
+    }
+
+    //游标分页的每页条数
+    private static int cursorPageSize(Integer pageSize) {
+        return pageSize == null || pageSize <= 0 ? 10 : Math.min(pageSize, 50);
+    }
+
+    //游标分页的总数只在缓存失效时查一次库,几分钟内的误差可以接受
+    private long cachedCount(String name, Supplier<Long> counter) {
+        String key = FEED_COUNT_KEY + name;
+        String cached = stringRedisTemplate.opsForValue().get(key);
+        if (cached != null) {
+            return Long.parseLong(cached);
+        }
+        Long count = counter.get();
+        long total = count == null ? 0L : count;
+        stringRedisTemplate.opsForValue().set(key, String.valueOf(total), FEED_COUNT_TTL_MINUTES, TimeUnit.MINUTES);
+        return total;
+    }
+
+    private static long nullToZero(Long value) {
+        return value == null ? 0L : value;
+    }
+
     //热点资讯
     @Override
     public Result Focus() {
         resNo = new HashMap();
         resYes = new HashMap();
-        QueryWrapper<Topic> wrapper = new QueryWrapper<>();
-        //7天内的帖子
-//        wrapper.apply(true, "DATE_SUB(CURDATE(), INTERVAL 30 DAY) <= date(create_time)");
-        wrapper.orderByDesc("number_of_views").last("limit 0 ,6");
         try {
-            List<Topic> topics = topicMapper.selectList(wrapper);
+            //直接从排行榜取前6,观看数以排行榜分数为准
+            LinkedHashMap<Long, Long> top = topicRankService.topByViews(6);
+            List<Topic> topics = topicRankService.getCards(top.keySet());
+            for (Topic topic : topics) {
+                topic.setNumberOfViews(top.get(topic.getId()));
+            }
+            if (topics.isEmpty()) {
+                QueryWrapper<Topic> wrapper = new QueryWrapper<>();
+                wrapper.orderByDesc("number_of_views").last("limit 0 ,6");
+                topics = topicMapper.selectList(wrapper);
+            }
             resYes.put("hotList",topics);
 
         } catch (Exception e) {
@@ -361,7 +619,138 @@ public class TopicServiceImpl extends ServiceImpl<TopicMapper, Topic>
         return Result.suc(ResponseCode.Code200,resYes);
     }
 
+    /**
+     * 一次性查询本页所有发帖人的昵称和头像
+     *
+     * @param topics 当前页的帖子
+     */
+    private void fillUserInfo(List<Topic> topics) {
+        if (topics == null || topics.isEmpty()) {
+            return;
+        }
+        Set<Long> userIds = new LinkedHashSet<>();
+        for (Topic topic : topics) {
+            userIds.add(topic.getCreateUserId());
+        }
+        Map<Long, UserProfileCache.Profile> profiles = userProfileCache.getAll(userIds);
+        for (Topic topic : topics) {
+            UserProfileCache.Profile profile = profiles.get(topic.getCreateUserId());
+            if (profile != null) {
+                topic.setNickName(profile.getName());
+                topic.setAvatar(profile.getAvatar());
+            }
+        }
+    }
+
+    /**
+     * 一次性查询本页所有帖子的标签名,帖子需已带上tagId
+     *
+     * @param topics 当前页的帖子
+     */
+    private void fillTagName(List<Topic> topics) {
+        if (topics == null || topics.isEmpty()) {
+            return;
+        }
+        Set<Long> tagIds = new LinkedHashSet<>();
+        for (Topic topic : topics) {
+            if (topic.getTagId() != null) {
+                tagIds.add(topic.getTagId());
+            }
+        }
+        if (tagIds.isEmpty()) {
+            return;
+        }
+        Map<Long, String> tagMap = new HashMap<>();
+        for (Tag tag : tagClient.getTagByIds(new ArrayList<>(tagIds))) {
+            tagMap.put(tag.getId(), tag.getContent());
+        }
+        for (Topic topic : topics) {
+            topic.setTagName(tagMap.get(topic.getTagId()));
+        }
+    }
+
+    //热度榜
+    @Override
+    public Result Trending(Integer size) {
+        resNo = new HashMap();
+        resYes = new HashMap();
+        try {
+            int n = size == null || size <= 0 ? 10 : Math.min(size, 50);
+            List<Topic> topics = topicRankService.getCards(topicTrendingService.top(n));
+            fillUserInfo(topics);
+            resYes.put("trendingList",topics);
+        } catch (Exception e) {
+            e.printStackTrace();
+            resNo.put("msg","出现错误!");
+            return Result.fail(ResponseCode.Code402,resNo);
+        }
+        return Result.suc(ResponseCode.Code200,resYes);
+    }
+
+    //首页轮播图
+    @Override
+    public List<Topic> getTopImgList() {
+        List<Topic> list = new ArrayList<>();
+        try {
+            for (Topic card : topicRankService.getCards(topicRankService.topByLikes(5).keySet())) {
+                Topic topic = new Topic();
+                topic.setId(card.getId());
+                topic.setCoverImage(card.getCoverImage());
+                list.add(topic);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        if (list.isEmpty()) {
+            LambdaQueryWrapper<Topic> wrapper = new LambdaQueryWrapper<>();
+            wrapper.orderByDesc(Topic::getIsTop)
+                    .orderByDesc(Topic::getNumberOfLikes)
+                    .last("limit 0,5")
+                    .select(Topic::getCoverImage,Topic::getId);
+            list = topicMapper.selectList(wrapper);
+        }
+        return list;
+    }
 
+    @Override
+    @Transactional
+    public boolean adjustCommentsCount(String batchId, Map<Long, Integer> deltas) {
+        if (deltas == null || deltas.isEmpty()) {
+            return false;
+        }
+        //批次号和评论数在同一个事务里写入,超时重试送来的同一批次直接跳过
+        if (topicMapper.insertCommentBatch(batchId) == 0) {
+            return false;
+        }
+        topicMapper.batchAdjustComments(deltas);
+        deltas.forEach(topicTrendingService::onComments);
+        return true;
+    }
+
+    /**
+     * 评论数取topic.comments,再叠加Redis中还未同步的增量
+     *
+     * @param topics 当前页的帖子
+     */
+    private void fillComments(List<Topic> topics) {
+        if (topics == null || topics.isEmpty()) {
+            return;
+        }
+        List<Object> topicIds = new ArrayList<>();
+        for (Topic topic : topics) {
+            topicIds.add(topic.getId().toString());
+        }
+        List<Object> pending = stringRedisTemplate.opsForHash().multiGet(Constants.TOPIC_COMMENTS_COUNT_KEY, topicIds);
+        for (int i = 0; i < topics.size(); i++) {
+            Topic topic = topics.get(i);
+            long comments = topic.getComments() == null ? 0L : topic.getComments();
+            Object delta = pending.get(i);
+            if (delta != null) {
+                comments += Long.parseLong(delta.toString());
+            }
+            topic.setComments(Math.max(comments, 0L));
+        }
+    }
 }
 
 
@@ -0,0 +1,165 @@
+package xyz.Brownie.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+import xyz.Brownie.bean.entity.Topic;
+import xyz.Brownie.mapper.TopicMapper;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+
+/**
+ * 热度榜,热度按半衰期指数衰减
+ * <p>
+ * ZSET中保存的是以epoch为基准放大后的分数: 在t时刻发生的事件加 weight * 2^((t - epoch) / halfLife),
+ * 所有帖子按同一比例衰减,排序不受影响,所以读榜单不需要重新计算。
+ * 定时任务把所有分数乘以 2^(-(now - epoch) / halfLife) 并把epoch移到now,防止分数无限增长,
+ * 同时清掉已经衰减到可以忽略的帖子。
+ */
+@Service
+@RequiredArgsConstructor
+public class TopicTrendingService {
+    private static final Logger log = LoggerFactory.getLogger(TopicTrendingService.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final TopicMapper topicMapper;
+    private final TopicCountService topicCountService;
+
+    private static final String TRENDING_KEY = "topic:trending";
+    private static final String EPOCH_KEY = "topic:trending:epoch";
+
+    // 半衰期24小时
+    private static final long HALF_LIFE_MILLIS = 24L * 60 * 60 * 1000;
+    // 各类事件的权重
+    private static final double VIEW_WEIGHT = 1;
+    private static final double LIKE_WEIGHT = 5;
+    private static final double COMMENT_WEIGHT = 10;
+    private static final double PUBLISH_WEIGHT = 20;
+    // 衰减后低于该值的帖子移出榜单
+    private static final double MIN_SCORE = 0.5;
+    // 启动时用最近几天的帖子初始化榜单
+    private static final int SEED_DAYS = 7;
+
+    // ARGV: now, halfLife, weight, topicId
+    private static final DefaultRedisScript<Long> INCR_SCRIPT = new DefaultRedisScript<>(
+            "local epoch = tonumber(redis.call('GET', KEYS[2])) "
+                    + "if not epoch then epoch = tonumber(ARGV[1]) redis.call('SET', KEYS[2], ARGV[1]) end "
+                    + "local w = tonumber(ARGV[3]) * math.pow(2, (tonumber(ARGV[1]) - epoch) / tonumber(ARGV[2])) "
+                    + "redis.call('ZINCRBY', KEYS[1], w, ARGV[4]) "
+                    + "return 1", Long.class);
+
+    // ARGV: now, halfLife, minScore
+    private static final DefaultRedisScript<Long> DECAY_SCRIPT = new DefaultRedisScript<>(
+            "local epoch = tonumber(redis.call('GET', KEYS[2])) "
+                    + "if not epoch then redis.call('SET', KEYS[2], ARGV[1]) return 0 end "
+                    + "local factor = math.pow(2, -(tonumber(ARGV[1]) - epoch) / tonumber(ARGV[2])) "
+                    + "if redis.call('EXISTS', KEYS[1]) == 1 then "
+                    + "redis.call('ZUNIONSTORE', KEYS[1], 1, KEYS[1], 'WEIGHTS', factor) "
+                    + "redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', '(' .. ARGV[3]) "
+                    + "end "
+                    + "redis.call('SET', KEYS[2], ARGV[1]) "
+                    + "return redis.call('ZCARD', KEYS[1])", Long.class);
+
+    @PostConstruct
+    public void init() {
+        try {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(TRENDING_KEY))) {
+                seed();
+            }
+        } catch (Exception e) {
+            log.error("初始化热度榜失败", e);
+        }
+    }
+
+    /**
+     * 用最近SEED_DAYS天内发布的帖子初始化榜单,按发布时间衰减
+     */
+    private void seed() {
+        long now = System.currentTimeMillis();
+        QueryWrapper<Topic> wrapper = new QueryWrapper<>();
+        wrapper.select("id", "create_time", "number_of_views", "number_of_likes", "comments")
+                .ge("create_time", new Date(now - SEED_DAYS * 24L * 60 * 60 * 1000));
+        List<Topic> topics = topicMapper.selectList(wrapper);
+        if (topics.isEmpty()) {
+            return;
+        }
+        Map<Long, Integer> pendingViews = topicCountService.getViewsCountMap();
+        Map<Long, Integer> pendingLikes = topicCountService.getLikesCountMap();
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>();
+        for (Topic topic : topics) {
+            double raw = PUBLISH_WEIGHT
+                    + VIEW_WEIGHT * (nullToZero(topic.getNumberOfViews()) + pendingViews.getOrDefault(topic.getId(), 0))
+                    + LIKE_WEIGHT * (nullToZero(topic.getNumberOfLikes()) + pendingLikes.getOrDefault(topic.getId(), 0))
+                    + COMMENT_WEIGHT * nullToZero(topic.getComments());
+            long created = topic.getCreateTime() == null ? now : topic.getCreateTime().getTime();
+            double score = raw * Math.pow(2, -(double) (now - created) / HALF_LIFE_MILLIS);
+            tuples.add(new DefaultTypedTuple<>(topic.getId().toString(), score));
+        }
+        stringRedisTemplate.opsForValue().set(EPOCH_KEY, String.valueOf(now));
+        stringRedisTemplate.opsForZSet().add(TRENDING_KEY, tuples);
+        log.info("热度榜初始化完成，帖子数: {}", tuples.size());
+    }
+
+    // 事件
+    public void onView(Long topicId) {
+        increment(topicId, VIEW_WEIGHT);
+    }
+
+    public void onLike(Long topicId) {
+        increment(topicId, LIKE_WEIGHT);
+    }
+
+    public void onComments(Long topicId, int delta) {
+        if (delta > 0) {
+            increment(topicId, COMMENT_WEIGHT * delta);
+        }
+    }
+
+    public void onPublish(Long topicId) {
+        increment(topicId, PUBLISH_WEIGHT);
+    }
+
+    public void remove(Long topicId) {
+        stringRedisTemplate.opsForZSet().remove(TRENDING_KEY, topicId.toString());
+    }
+
+    private void increment(Long topicId, double weight) {
+        stringRedisTemplate.execute(INCR_SCRIPT, Arrays.asList(TRENDING_KEY, EPOCH_KEY),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(HALF_LIFE_MILLIS),
+                String.valueOf(weight), topicId.toString());
+    }
+
+    /**
+     * 批量衰减,返回衰减后榜单中的帖子数
+     */
+    public Long decay() {
+        return stringRedisTemplate.execute(DECAY_SCRIPT, Arrays.asList(TRENDING_KEY, EPOCH_KEY),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(HALF_LIFE_MILLIS),
+                String.valueOf(MIN_SCORE));
+    }
+
+    /**
+     * 热度最高的n个帖子id
+     */
+    public List<Long> top(int n) {
+        List<Long> result = new ArrayList<>();
+        Set<String> members = stringRedisTemplate.opsForZSet().reverseRange(TRENDING_KEY, 0, n - 1);
+        if (members != null) {
+            for (String member : members) {
+                result.add(Long.parseLong(member));
+            }
+        }
+        return result;
+    }
+
+    private static long nullToZero(Long value) {
+        return value == null ? 0L : value;
+    }
+}
@@ -0,0 +1,177 @@
+package xyz.Brownie.task;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import xyz.Brownie.mapper.TopicMapper;
+import xyz.Brownie.service.impl.TopicCountService;
+import xyz.Brownie.service.impl.TopicRankService;
+import xyz.Brownie.service.impl.TopicSearchService;
+import xyz.Brownie.service.impl.TopicTrendingService;
+import xyz.Brownie.utils.RedisLock;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@Service
+public class TopicCountSyncTask {
+    private static final Logger log = LoggerFactory.getLogger(TopicCountSyncTask.class);
+
+    // 每条update最多写回的帖子数
+    private static final int BATCH_SIZE = 500;
+    // 评论数批次记录的保留天数
+    private static final long COMMENT_BATCH_RETENTION_DAYS = 7;
+    // 各任务的锁租期,远大于正常耗时;持有的实例挂掉后最多等这么久由其它实例接手
+    private static final long SYNC_LEASE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    @Autowired
+    private TopicMapper topicMapper;
+
+    @Autowired
+    private TopicCountService topicCountService;
+
+    @Autowired
+    private TopicRankService topicRankService;
+
+    @Autowired
+    private TopicTrendingService topicTrendingService;
+
+    @Autowired
+    private TopicSearchService topicSearchService;
+
+    // 多实例部署时每个任务同一时刻只在一个实例上执行,否则同一份增量会被几个实例重复写回
+    @Autowired
+    private RedisLock redisLock;
+
+    /**
+     * 每30秒同步一次观看数
+     */
+    @Scheduled(cron = "*/30 * * * * ?")
+    public void syncViewsCount() {
+        redisLock.runExclusively("topic:sync:views", SYNC_LEASE_MILLIS,
+                () -> batchSyncCounts(topicCountService.getViewsCountMap(), "views"));
+    }
+
+    /**
+     * 每30秒同步一次点赞数
+     */
+    @Scheduled(cron = "*/30 * * * * ?")
+    public void syncLikesCount() {
+        redisLock.runExclusively("topic:sync:likes", SYNC_LEASE_MILLIS,
+                () -> batchSyncCounts(topicCountService.getLikesCountMap(), "likes"));
+    }
+
+    /**
+     * 每天凌晨4点从topic表重建一次排行榜,纠正Redis异常造成的偏差
+     */
+    @Scheduled(cron = "0 0 4 * * ?")
+    public void rebuildRank() {
+        try {
+            redisLock.runExclusively(TopicRankService.REBUILD_LOCK, TopicRankService.REBUILD_LEASE_MILLIS,
+                    topicRankService::rebuild);
+        } catch (Exception e) {
+            log.error("重建排行榜失败", e);
+        }
+    }
+
+    /**
+     * 每10分钟检查一次排行榜是否完整,Redis被清空或key过期后尽快重建,不用等到凌晨
+     */
+    @Scheduled(cron = "0 */10 * * * ?")
+    public void checkRank() {
+        try {
+            redisLock.runExclusively(TopicRankService.REBUILD_LOCK, TopicRankService.REBUILD_LEASE_MILLIS,
+                    topicRankService::rebuildIfIncomplete);
+        } catch (Exception e) {
+            log.error("检查排行榜失败", e);
+        }
+    }
+
+    /**
+     * 每天凌晨4点半重建一次搜索索引,补上广播丢失(实例重启/断连期间)的变更
+     * 索引在每个实例自己的内存里,每个实例都要重建,不加锁
+     */
+    @Scheduled(cron = "0 30 4 * * ?")
+    public void rebuildSearchIndex() {
+        try {
+            topicSearchService.rebuild();
+        } catch (Exception e) {
+            log.error("重建搜索索引失败", e);
+        }
+    }
+
+    /**
+     * 每小时对热度榜整体衰减一次
+     */
+    @Scheduled(cron = "0 0 * * * ?")
+    public void decayTrending() {
+        try {
+            redisLock.runExclusively("topic:trending:decay", SYNC_LEASE_MILLIS, () -> {
+                Long size = topicTrendingService.decay();
+                log.info("热度榜衰减完成，剩余帖子数: {}", size);
+            });
+        } catch (Exception e) {
+            log.error("热度榜衰减失败", e);
+        }
+    }
+
+    /**
+     * 每天凌晨5点清理7天前的评论数批次记录,comment模块未确认的批次不会积压这么久
+     */
+    @Scheduled(cron = "0 0 5 * * ?")
+    public void cleanCommentBatches() {
+        try {
+            redisLock.runExclusively("topic:comment-batch:clean", SYNC_LEASE_MILLIS, () -> {
+                Date before = Date.from(Instant.now().minus(COMMENT_BATCH_RETENTION_DAYS, ChronoUnit.DAYS));
+                Integer removed = topicMapper.deleteCommentBatchesBefore(before);
+                log.info("清理评论数批次记录: {}", removed);
+            });
+        } catch (Exception e) {
+            log.error("清理评论数批次记录失败", e);
+        }
+    }
+
+    /**
+     * 按BATCH_SIZE分批同步计数
+     */
+    private void batchSyncCounts(Map<Long, Integer> countMap, String countType) {
+        Map<Long, Integer> batch = new LinkedHashMap<>();
+        for (Map.Entry<Long, Integer> entry : countMap.entrySet()) {
+            batch.put(entry.getKey(), entry.getValue());
+            if (batch.size() >= BATCH_SIZE) {
+                flush(batch, countType);
+                batch = new LinkedHashMap<>();
+            }
+        }
+        flush(batch, countType);
+    }
+
+    private void flush(Map<Long, Integer> batch, String countType) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            if ("views".equals(countType)) {
+                topicMapper.batchAdjustViews(batch);
+            } else {
+                topicMapper.batchAdjustLikes(batch);
+            }
+        } catch (Exception e) {
+            // 增量仍保留在Redis中，下次一起同步
+            log.error("同步{}计数失败，帖子数: {}", countType, batch.size(), e);
+            return;
+        }
+        // 同步成功后，扣掉已写入的增量
+        if ("views".equals(countType)) {
+            batch.forEach(topicCountService::resetViewsCount);
+        } else {
+            batch.forEach(topicCountService::resetLikesCount);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+-- 帖子查询用到的组合索引
+-- InnoDB二级索引自带主键,(create_time)等索引同时满足(create_time, id)的游标分页排序
+
+-- 用户主页: where create_user_id = ? order by create_time desc
+create index idx_topic_user_time on topic (create_user_id, create_time);
+
+-- 首页轮播图/双重排序: order by is_top desc, number_of_likes desc
+create index idx_topic_top_likes on topic (is_top, number_of_likes);
+
+-- 视频筛选: where is_video = ? and create_time >= ?
+create index idx_topic_video_time on topic (is_video, create_time);
+
+-- 按时间范围筛选和按发布时间分页
+create index idx_topic_create_time on topic (create_time);
+
+-- 按观看数分页
+create index idx_topic_views on topic (number_of_views);
+
+-- 列表查询都要连接帖子标签表
+create index idx_topic_tag_topic on topic_tag (topic_id);
@@ -0,0 +1,7 @@
+-- topic.comments改为随发表/删除评论增量维护之前创建的帖子,按comments表重算一次评论数
+-- 只统计未删除的评论;迁移时Redis里topic:comments:count尚未同步的增量会在之后照常叠加
+update topic t
+set t.comments = (select count(*)
+                  from comments c
+                  where c.topic_id = t.id
+                    and c.is_delete = 0);
@@ -0,0 +1,9 @@
+-- 已写入topic.comments的评论数批次,comment模块超时重试同一批次时只累加一次
+-- 批次号和累加评论数在同一个事务里写入,保留7天后由TopicCountSyncTask清理
+create table topic_comment_batch
+(
+    batch_id    varchar(64) not null primary key,
+    create_time datetime    not null
+);
+
+create index idx_topic_comment_batch_time on topic_comment_batch (create_time);
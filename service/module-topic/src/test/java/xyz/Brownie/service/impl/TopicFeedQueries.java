@@ -0,0 +1,231 @@
+package xyz.Brownie.service.impl;
+
+import com.baomidou.mybatisplus.annotation.DbType;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.plugins.MybatisPlusInterceptor;
+import com.baomidou.mybatisplus.extension.plugins.inner.PaginationInnerInterceptor;
+import com.baomidou.mybatisplus.extension.spring.MybatisSqlSessionFactoryBean;
+import org.apache.ibatis.executor.parameter.ParameterHandler;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+import xyz.Brownie.bean.dto.TopicDto;
+import xyz.Brownie.bean.entity.Topic;
+import xyz.Brownie.client.TagClient;
+import xyz.Brownie.constants.ResponseCode;
+import xyz.Brownie.mapper.TopicMapper;
+import xyz.Brownie.utils.Result;
+import xyz.Brownie.utils.UserProfileCache;
+
+import javax.sql.DataSource;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 执行计划测试的公共部分: 建topic/topic_tag表并执行V2迁移脚本,造一批帖子;
+ * 用真实的TopicMapper.xml和MyBatis-Plus分页插件组装TopicServiceImpl,记下各列表接口实际发出的SQL和参数,
+ * 再对同一条SQL、同一组参数执行EXPLAIN
+ */
+class TopicFeedQueries {
+
+    // 一半是官方帖子(create_user_id=0),视频占2%,置顶占1%,发布时间每小时一条,跨度约200天
+    private static final int TOPICS = 5000;
+    private static final int PAGE_SIZE = 10;
+
+    private final DataSource dataSource;
+    private final TopicMapper topicMapper;
+    private final TopicServiceImpl topicService;
+    private final List<Captured> captured = new ArrayList<>();
+
+    TopicFeedQueries(DataSource dataSource, DbType dbType) throws Exception {
+        this.dataSource = dataSource;
+        createTables();
+
+        MybatisSqlSessionFactoryBean factoryBean = new MybatisSqlSessionFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setMapperLocations(new PathMatchingResourcePatternResolver().getResources("classpath:mapper/TopicMapper.xml"));
+        MybatisPlusInterceptor interceptor = new MybatisPlusInterceptor();
+        interceptor.addInnerInterceptor(new PaginationInnerInterceptor(dbType));
+        factoryBean.setPlugins(interceptor, new Capture());
+        topicMapper = new SqlSessionTemplate(factoryBean.getObject()).getMapper(TopicMapper.class);
+
+        topicService = new TopicServiceImpl();
+        ReflectionTestUtils.setField(topicService, "topicMapper", topicMapper);
+        ReflectionTestUtils.setField(topicService, "stringRedisTemplate", emptyRedis());
+        ReflectionTestUtils.setField(topicService, "tagClient", mock(TagClient.class));
+        ReflectionTestUtils.setField(topicService, "userProfileCache", mock(UserProfileCache.class));
+    }
+
+    // 首页双重排序第一页: 没有筛选条件,只按置顶、点赞数、id倒序
+    Captured choose() {
+        return firstQuery(() -> topicService.SelectChooseByCursor(null, PAGE_SIZE));
+    }
+
+    // 官方帖子第一页
+    Captured host() {
+        return firstQuery(() -> topicService.HostOfTopicByCursor(null, PAGE_SIZE));
+    }
+
+    // 模糊查询第一页,withTime="2"为7天内,isTime="1"按发布时间排序,否则按观看数
+    Captured fuzzy(String isTime, String withTime, String isVideo) {
+        TopicDto topicDto = new TopicDto();
+        topicDto.setIsTime(isTime);
+        topicDto.setWithTime(withTime);
+        topicDto.setIsVideo(isVideo);
+        topicDto.setPageSize(PAGE_SIZE);
+        return firstQuery(() -> topicService.SelectSomeByCursor(topicDto));
+    }
+
+    // 改写前的7天内筛选,列被date()包住;sevenDaysAgo是七天前零点的表达式,原来写的是DATE_SUB(CURDATE(), INTERVAL 7 DAY)
+    Captured legacyWeek(String sevenDaysAgo) {
+        captured.clear();
+        QueryWrapper<Topic> wrapper = new QueryWrapper<>();
+        wrapper.apply(true, sevenDaysAgo + " <= date(create_time)")
+                .last("order by a.create_time desc, a.id desc limit " + (PAGE_SIZE + 1));
+        topicMapper.selectListWithTag(wrapper);
+        assertFalse(captured.isEmpty());
+        return captured.get(0);
+    }
+
+    /**
+     * 用捕获时的参数处理器绑定参数后执行EXPLAIN
+     *
+     * @return 每行一个Map,列名小写
+     */
+    List<Map<String, String>> explain(Captured query) throws SQLException {
+        List<Map<String, String>> rows = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("explain " + query.sql)) {
+            query.parameterHandler.setParameters(statement);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                ResultSetMetaData meta = resultSet.getMetaData();
+                while (resultSet.next()) {
+                    Map<String, String> row = new LinkedHashMap<>();
+                    for (int i = 1; i <= meta.getColumnCount(); i++) {
+                        row.put(meta.getColumnLabel(i).toLowerCase(), resultSet.getString(i));
+                    }
+                    rows.add(row);
+                }
+            }
+        }
+        return rows;
+    }
+
+    // 接口里先查列表再查总数,取第一条
+    private Captured firstQuery(Supplier<Result> call) {
+        captured.clear();
+        Result result = call.get();
+        assertEquals(ResponseCode.Code200, result.getCode(), String.valueOf(result.getData()));
+        assertFalse(captured.isEmpty());
+        return captured.get(0);
+    }
+
+    private void createTables() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("create table topic (id bigint primary key, create_user_id bigint, title varchar(255), "
+                        + "content text, create_time datetime, plate int, number_of_likes bigint, number_of_views bigint, "
+                        + "comments bigint, is_top int, is_delete int, is_video int, update_time datetime, "
+                        + "cover_image varchar(255), synopsis varchar(255))");
+                statement.execute("create table topic_tag (id bigint primary key, topic_id bigint, tag_id bigint, is_delete int)");
+                for (String sql : migration("db/migration/V2__topic_query_indexes.sql").split(";")) {
+                    if (!sql.replaceAll("(?m)^\\s*--.*$", "").trim().isEmpty()) {
+                        statement.execute(sql);
+                    }
+                }
+            }
+            long now = System.currentTimeMillis();
+            try (PreparedStatement topic = connection.prepareStatement("insert into topic (id, create_user_id, title, "
+                    + "create_time, number_of_likes, number_of_views, comments, is_top, is_delete, is_video) "
+                    + "values (?, ?, ?, ?, ?, ?, 0, ?, 0, ?)");
+                 PreparedStatement tag = connection.prepareStatement(
+                         "insert into topic_tag (id, topic_id, tag_id, is_delete) values (?, ?, ?, 0)")) {
+                for (long id = 1; id <= TOPICS; id++) {
+                    topic.setLong(1, id);
+                    topic.setLong(2, id % 2 == 0 ? 0 : id % 97);
+                    topic.setString(3, "帖子" + id);
+                    topic.setTimestamp(4, new Timestamp(now - (TOPICS - id) * 3600_000L));
+                    topic.setLong(5, id * 7 % 1000);
+                    topic.setLong(6, id * 13 % 5000);
+                    topic.setInt(7, id % 100 == 0 ? 1 : 0);
+                    topic.setInt(8, id % 50 == 0 ? 1 : 0);
+                    topic.addBatch();
+                    tag.setLong(1, id);
+                    tag.setLong(2, id);
+                    tag.setLong(3, id % 20);
+                    tag.addBatch();
+                }
+                topic.executeBatch();
+                tag.executeBatch();
+            }
+        }
+    }
+
+    private static String migration(String path) {
+        InputStream in = TopicFeedQueries.class.getClassLoader().getResourceAsStream(path);
+        assertNotNull(in, path);
+        try (Scanner scanner = new Scanner(in, StandardCharsets.UTF_8.name()).useDelimiter("\\A")) {
+            return scanner.next();
+        }
+    }
+
+    // 总数缓存未命中、没有未同步的评论数
+    @SuppressWarnings("unchecked")
+    private static StringRedisTemplate emptyRedis() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOps = mock(ValueOperations.class);
+        HashOperations<String, Object, Object> hashOps = mock(HashOperations.class);
+        when(template.opsForValue()).thenReturn(valueOps);
+        when(template.<Object, Object>opsForHash()).thenReturn(hashOps);
+        when(hashOps.multiGet(anyString(), anyCollection()))
+                .thenAnswer(inv -> new ArrayList<>(Collections.nCopies(inv.<Collection<?>>getArgument(1).size(), null)));
+        return template;
+    }
+
+    static class Captured {
+        final String sql;
+        final ParameterHandler parameterHandler;
+
+        Captured(String sql, ParameterHandler parameterHandler) {
+            this.sql = sql;
+            this.parameterHandler = parameterHandler;
+        }
+
+        @Override
+        public String toString() {
+            return sql;
+        }
+    }
+
+    // 分页插件改写之后、发给数据库之前的SQL
+    @Intercepts(@Signature(type = StatementHandler.class, method = "prepare", args = {Connection.class, Integer.class}))
+    private class Capture implements Interceptor {
+        @Override
+        public Object intercept(Invocation invocation) throws Throwable {
+            StatementHandler handler = (StatementHandler) invocation.getTarget();
+            captured.add(new Captured(handler.getBoundSql().getSql(), handler.getParameterHandler()));
+            return invocation.proceed();
+        }
+    }
+}
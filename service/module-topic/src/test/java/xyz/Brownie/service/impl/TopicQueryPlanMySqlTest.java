@@ -0,0 +1,95 @@
+package xyz.Brownie.service.impl;
+
+import com.baomidou.mybatisplus.annotation.DbType;
+import com.mysql.cj.jdbc.MysqlDataSource;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import xyz.Brownie.service.impl.TopicFeedQueries.Captured;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 在MySQL 8容器里EXPLAIN各列表接口实际生成的SQL,包括只靠倒序扫描索引的首页双重排序和按观看数排序;
+ * 没有docker时整个类跳过
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class TopicQueryPlanMySqlTest {
+
+    @Container
+    private static final MySQLContainer<?> MYSQL = new MySQLContainer<>("mysql:8.0");
+
+    private static TopicFeedQueries queries;
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        MysqlDataSource dataSource = new MysqlDataSource();
+        dataSource.setUrl(MYSQL.getJdbcUrl());
+        dataSource.setUser(MYSQL.getUsername());
+        dataSource.setPassword(MYSQL.getPassword());
+        queries = new TopicFeedQueries(dataSource, DbType.MYSQL);
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("analyze table topic, topic_tag");
+        }
+    }
+
+    @Test
+    void chooseFeedScansTopLikesIndexBackwards() throws SQLException {
+        assertIndexOrder("idx_topic_top_likes", queries.choose());
+    }
+
+    @Test
+    void viewsFeedScansViewsIndexBackwards() throws SQLException {
+        assertIndexOrder("idx_topic_views", queries.fuzzy("0", null, null));
+    }
+
+    @Test
+    void hostTopicsUseUserTimeIndex() throws SQLException {
+        assertIndexOrder("idx_topic_user_time", queries.host());
+    }
+
+    @Test
+    void timeWindowUsesCreateTimeIndex() throws SQLException {
+        assertIndexOrder("idx_topic_create_time", queries.fuzzy("1", "2", null));
+    }
+
+    @Test
+    void videoFilterUsesVideoTimeIndex() throws SQLException {
+        assertIndexOrder("idx_topic_video_time", queries.fuzzy("1", "2", "1"));
+    }
+
+    @Test
+    void listsJoinTagsByTopicIdIndex() throws SQLException {
+        Map<String, String> tag = row("b", queries.choose());
+        assertEquals("idx_topic_tag_topic", tag.get("key"), tag.toString());
+    }
+
+    @Test
+    void dateFunctionOnColumnScansTable() throws SQLException {
+        // 改写前的原样条件
+        Map<String, String> topic = row("a", queries.legacyWeek("DATE_SUB(CURDATE(), INTERVAL 7 DAY)"));
+        assertEquals("ALL", topic.get("type"), topic.toString());
+    }
+
+    // topic表走指定索引,且排序直接用索引顺序,不需要filesort
+    private static void assertIndexOrder(String index, Captured query) throws SQLException {
+        Map<String, String> topic = row(query.sql.contains(" as a ") ? "a" : "topic", query);
+        assertEquals(index, topic.get("key"), query + "\n" + topic);
+        String extra = String.valueOf(topic.get("extra"));
+        assertFalse(extra.contains("Using filesort"), query + "\n" + topic);
+    }
+
+    private static Map<String, String> row(String table, Captured query) throws SQLException {
+        List<Map<String, String>> rows = queries.explain(query);
+        return rows.stream().filter(row -> table.equals(row.get("table"))).findFirst()
+                .orElseThrow(() -> new AssertionError(query + "\n" + rows));
+    }
+}
@@ -0,0 +1,88 @@
+package xyz.Brownie.service.impl;
+
+import com.baomidou.mybatisplus.annotation.DbType;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import xyz.Brownie.service.impl.TopicFeedQueries.Captured;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 在H2(MySQL模式)上EXPLAIN各列表接口实际生成的SQL,检查筛选条件能走上V2的索引;
+ * H2只在排序方向和索引定义一致时才用索引排序,不会倒序扫描索引,
+ * 只靠ORDER BY ... DESC走索引的首页双重排序和按观看数排序由TopicQueryPlanMySqlTest在MySQL上检查
+ */
+class TopicQueryPlanTest {
+
+    private static JdbcConnectionPool dataSource;
+    private static TopicFeedQueries queries;
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        dataSource = JdbcConnectionPool.create("jdbc:h2:mem:topic_plan;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+        queries = new TopicFeedQueries(dataSource, DbType.H2);
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("analyze");
+        }
+    }
+
+    @AfterAll
+    static void tearDown() {
+        dataSource.dispose();
+    }
+
+    @Test
+    void chooseFeedHasNoFilterOnlyOrderBy() {
+        // 首页双重排序不按is_top筛选,索引只能用来排序
+        assertEquals("select a.*, b.tag_id from topic as a left join topic_tag as b on a.id = b.topic_id and b.is_delete = 0 "
+                        + "where a.is_delete = 0 order by a.is_top desc, a.number_of_likes desc, a.id desc limit 11",
+                queries.choose().sql.replaceAll("\\s+", " ").trim());
+    }
+
+    @Test
+    void listsJoinTagsByTopicIdIndex() throws SQLException {
+        assertUsesIndex("idx_topic_tag_topic", queries.choose());
+    }
+
+    @Test
+    void hostTopicsUseUserTimeIndex() throws SQLException {
+        assertUsesIndex("idx_topic_user_time", queries.host());
+    }
+
+    @Test
+    void timeWindowUsesCreateTimeIndex() throws SQLException {
+        assertUsesIndex("idx_topic_create_time", queries.fuzzy("1", "2", null));
+    }
+
+    @Test
+    void videoFilterUsesVideoTimeIndex() throws SQLException {
+        assertUsesIndex("idx_topic_video_time", queries.fuzzy("1", "2", "1"));
+    }
+
+    @Test
+    void dateFunctionOnColumnScansTable() throws SQLException {
+        // H2没有DATE_SUB,换成等价的CURDATE() - INTERVAL写法,列上同样包着date()
+        String plan = plan(queries.legacyWeek("CURDATE() - INTERVAL 7 DAY"));
+        assertTrue(plan.contains("public.topic.tablescan"), plan);
+        assertFalse(plan.contains("idx_topic_create_time"), plan);
+    }
+
+    private static void assertUsesIndex(String index, Captured query) throws SQLException {
+        String plan = plan(query);
+        assertTrue(plan.contains(index), query + "\n" + plan);
+    }
+
+    private static String plan(Captured query) throws SQLException {
+        return queries.explain(query).stream()
+                .map(row -> String.join("\n", row.values()))
+                .collect(Collectors.joining("\n")).toLowerCase();
+    }
+}
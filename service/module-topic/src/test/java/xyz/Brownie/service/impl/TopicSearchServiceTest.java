@@ -0,0 +1,161 @@
+package xyz.Brownie.service.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import xyz.Brownie.bean.entity.Topic;
+import xyz.Brownie.mapper.TopicMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class TopicSearchServiceTest {
+
+    private TopicMapper topicMapper;
+    private StringRedisTemplate stringRedisTemplate;
+    private TopicSearchService searchService;
+
+    @BeforeEach
+    void setUp() {
+        topicMapper = mock(TopicMapper.class);
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        searchService = new TopicSearchService(topicMapper, stringRedisTemplate);
+    }
+
+    @Test
+    void tokenizeSplitsCjkIntoBigramsForQueries() {
+        assertEquals(Arrays.asList("游戏", "戏攻", "攻略"), TopicSearchService.tokenize("游戏攻略", false));
+    }
+
+    @Test
+    void tokenizeAddsUnigramsWhenIndexing() {
+        assertEquals(Arrays.asList("游", "戏", "游戏"), TopicSearchService.tokenize("游戏", true));
+    }
+
+    @Test
+    void tokenizeKeepsSingleCjkCharacterQuery() {
+        assertEquals(Collections.singletonList("猫"), TopicSearchService.tokenize("猫", false));
+    }
+
+    @Test
+    void tokenizeLowercasesWordsAndSplitsOnScriptAndPunctuation() {
+        assertEquals(Arrays.asList("java", "入门", "2024", "spring"),
+                TopicSearchService.tokenize("Java入门, 2024-Spring", false));
+    }
+
+    @Test
+    void tokenizeAddsPrefixesAndLetterDigitRunsWhenIndexing() {
+        assertEquals(Arrays.asList("java8", "ja", "jav", "java", "8"), TopicSearchService.tokenize("Java8", true));
+        // 单个字母不作前缀收录
+        assertEquals(Arrays.asList("go", "c"), TopicSearchService.tokenize("Go C", true));
+    }
+
+    @Test
+    void tokenizeCapsPrefixLength() {
+        String hash = "0123456789abcdef0123456789abcdef";
+        assertTrue(TopicSearchService.tokenize(hash, true).stream().allMatch(term -> term.length() <= 20 || term.equals(hash)));
+    }
+
+    @Test
+    void tokenizeHandlesEmptyInput() {
+        assertTrue(TopicSearchService.tokenize(null, true).isEmpty());
+        assertTrue(TopicSearchService.tokenize("", false).isEmpty());
+        assertTrue(TopicSearchService.tokenize(" ,.!", false).isEmpty());
+    }
+
+    @Test
+    void searchRequiresEveryTermAndRanksTitleHitsFirst() {
+        searchService.index(topic(1L, "新手游戏攻略", "介绍"));
+        searchService.index(topic(2L, "今日闲聊", "一篇游戏攻略合集"));
+        searchService.index(topic(3L, "游戏新闻", "没有那个词"));
+
+        assertEquals(Arrays.asList(1L, 2L), searchService.search("游戏攻略", 10));
+        assertEquals(Collections.singletonList(1L), searchService.search("游戏攻略", 1));
+        // 1和3的标题里都有"游",同分时id大的在前;2只在简介里命中,排最后
+        assertEquals(Arrays.asList(3L, 1L, 2L), searchService.search("游", 10));
+    }
+
+    @Test
+    void searchMatchesWordsCaseInsensitively() {
+        searchService.index(topic(1L, "Spring Boot tips", null));
+        assertEquals(Collections.singletonList(1L), searchService.search("SPRING", 10));
+        assertTrue(searchService.search("spring cloud", 10).isEmpty());
+    }
+
+    @Test
+    void searchMatchesWordPrefixes() {
+        searchService.index(topic(1L, "JavaScript入门", null));
+        searchService.index(topic(2L, "Java8新特性", null));
+        searchService.index(topic(3L, "Kotlin", "不是那门语言"));
+
+        assertEquals(Arrays.asList(2L, 1L), searchService.search("java", 10));
+        assertEquals(Collections.singletonList(2L), searchService.search("java 8", 10));
+        assertEquals(Collections.singletonList(1L), searchService.search("javascr", 10));
+        // 只收录前缀,词中间的片段不命中
+        assertTrue(searchService.search("script", 10).isEmpty());
+    }
+
+    @Test
+    void reindexReplacesOldTermsAndRemoveDropsTopic() {
+        searchService.index(topic(1L, "旧标题", null));
+        searchService.index(topic(1L, "新标题", null));
+        assertTrue(searchService.search("旧标", 10).isEmpty());
+        assertEquals(Collections.singletonList(1L), searchService.search("新标", 10));
+
+        searchService.remove(1L);
+        assertTrue(searchService.search("新标", 10).isEmpty());
+    }
+
+    @Test
+    void changesAreBroadcastToOtherInstances() {
+        searchService.index(topic(7L, "标题", null));
+        searchService.remove(7L);
+        verify(stringRedisTemplate).convertAndSend(TopicSearchService.INDEX_CHANNEL, "index:7");
+        verify(stringRedisTemplate).convertAndSend(TopicSearchService.INDEX_CHANNEL, "remove:7");
+    }
+
+    @Test
+    void broadcastIndexReloadsTopicFromDatabase() {
+        when(topicMapper.selectOne(any())).thenReturn(topic(5L, "远端发布", null));
+        searchService.onMessage(message("index:5"), null);
+        assertEquals(Collections.singletonList(5L), searchService.search("远端", 10));
+
+        searchService.onMessage(message("remove:5"), null);
+        assertTrue(searchService.search("远端", 10).isEmpty());
+    }
+
+    @Test
+    void broadcastIndexOfDeletedTopicRemovesIt() {
+        searchService.index(topic(5L, "已删帖子", null));
+        when(topicMapper.selectOne(any())).thenReturn(null);
+        searchService.onMessage(message("index:5"), null);
+        assertTrue(searchService.search("已删", 10).isEmpty());
+    }
+
+    @Test
+    void malformedBroadcastIsIgnored() {
+        searchService.index(topic(5L, "保留", null));
+        searchService.onMessage(message("index:abc"), null);
+        searchService.onMessage(message("unknown"), null);
+        assertEquals(Collections.singletonList(5L), searchService.search("保留", 10));
+    }
+
+    private static Topic topic(Long id, String title, String synopsis) {
+        Topic topic = new Topic();
+        topic.setId(id);
+        topic.setTitle(title);
+        topic.setSynopsis(synopsis);
+        return topic;
+    }
+
+    private static DefaultMessage message(String body) {
+        return new DefaultMessage(TopicSearchService.INDEX_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,129 @@
+package xyz.Brownie.service.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+import xyz.Brownie.bean.entity.Topic;
+import xyz.Brownie.mapper.TopicMapper;
+import xyz.Brownie.utils.Result;
+import xyz.Brownie.utils.UserProfileCache;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 帖子详情的观看数/点赞数: 以排行榜为准,不在排行榜里时用表中计数加未同步的增量,不用详情缓存里的旧值;
+ * comment模块同步评论数按批次号去重
+ */
+class TopicServiceImplTest {
+
+    private static final Long TOPIC_ID = 7L;
+
+    private TopicMapper topicMapper;
+    private TopicCountService topicCountService;
+    private TopicRankService topicRankService;
+    private TopicServiceImpl topicService;
+
+    @BeforeEach
+    void setUp() {
+        topicMapper = mock(TopicMapper.class);
+        topicCountService = mock(TopicCountService.class);
+        topicRankService = mock(TopicRankService.class);
+        TopicDetailCache topicDetailCache = mock(TopicDetailCache.class);
+        UserProfileCache userProfileCache = mock(UserProfileCache.class);
+        when(userProfileCache.getAll(any())).thenReturn(Collections.emptyMap());
+        // 缓存里是一小时前的帖子,计数早已过时
+        when(topicDetailCache.get(eq(TOPIC_ID), any())).thenAnswer(inv -> topic(100L, 10L));
+
+        topicService = new TopicServiceImpl();
+        ReflectionTestUtils.setField(topicService, "topicMapper", topicMapper);
+        ReflectionTestUtils.setField(topicService, "topicCountService", topicCountService);
+        ReflectionTestUtils.setField(topicService, "topicRankService", topicRankService);
+        ReflectionTestUtils.setField(topicService, "topicTrendingService", mock(TopicTrendingService.class));
+        ReflectionTestUtils.setField(topicService, "topicDetailCache", topicDetailCache);
+        ReflectionTestUtils.setField(topicService, "userProfileCache", userProfileCache);
+    }
+
+    @Test
+    void detailUsesRankCountsWithoutQueryingTheTable() {
+        when(topicRankService.incrementViews(TOPIC_ID)).thenReturn(501L);
+        when(topicRankService.getLikes(TOPIC_ID)).thenReturn(42L);
+
+        Topic topic = detail();
+        assertEquals(501L, topic.getNumberOfViews());
+        assertEquals(42L, topic.getNumberOfLikes());
+        verify(topicMapper, never()).selectOne(any());
+    }
+
+    @Test
+    void detailOutsideRankReadsFlushedCountsFromTable() {
+        when(topicRankService.incrementViews(TOPIC_ID)).thenReturn(null);
+        when(topicRankService.getLikes(TOPIC_ID)).thenReturn(null);
+        // 增量已经写回表里,Redis里只剩这次的1次观看
+        when(topicMapper.selectOne(any())).thenReturn(topic(500L, 40L));
+        when(topicCountService.getPendingViews(TOPIC_ID)).thenReturn(1L);
+        when(topicCountService.getPendingLikes(TOPIC_ID)).thenReturn(0L);
+
+        Topic topic = detail();
+        assertEquals(501L, topic.getNumberOfViews());
+        assertEquals(40L, topic.getNumberOfLikes());
+        verify(topicCountService).incrementViews(TOPIC_ID);
+        verify(topicMapper, times(1)).selectOne(any());
+    }
+
+    @Test
+    void detailCacheDoesNotStoreCounts() {
+        TopicDetailCache cache = new TopicDetailCache(mockRedis(), null);
+        Function<Long, Topic> loader = id -> topic(500L, 40L);
+
+        Topic cached = cache.get(TOPIC_ID, loader);
+        assertNull(cached.getNumberOfViews());
+        assertNull(cached.getNumberOfLikes());
+    }
+
+    @Test
+    void commentBatchIsAppliedOnce() {
+        Map<Long, Integer> deltas = Collections.singletonMap(TOPIC_ID, 3);
+        when(topicMapper.insertCommentBatch("batch-1")).thenReturn(1, 0);
+
+        assertTrue(topicService.adjustCommentsCount("batch-1", deltas));
+        // 超时后重试同一批次
+        assertFalse(topicService.adjustCommentsCount("batch-1", deltas));
+        verify(topicMapper, times(1)).batchAdjustComments(deltas);
+    }
+
+    @Test
+    void emptyCommentBatchIsNotRecorded() {
+        assertFalse(topicService.adjustCommentsCount("batch-2", Collections.emptyMap()));
+        verify(topicMapper, never()).insertCommentBatch(any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RedisTemplate<String, Object> mockRedis() {
+        RedisTemplate<String, Object> redisTemplate = mock(RedisTemplate.class);
+        when(redisTemplate.opsForValue()).thenReturn(mock(ValueOperations.class));
+        return redisTemplate;
+    }
+
+    private Topic detail() {
+        Result result = topicService.detail(TOPIC_ID);
+        assertEquals(200, result.getCode(), String.valueOf(result.getData()));
+        return (Topic) result.getData().get("topic");
+    }
+
+    private static Topic topic(Long views, Long likes) {
+        Topic topic = new Topic();
+        topic.setId(TOPIC_ID);
+        topic.setCreateUserId(1L);
+        topic.setNumberOfViews(views);
+        topic.setNumberOfLikes(likes);
+        return topic;
+    }
+}
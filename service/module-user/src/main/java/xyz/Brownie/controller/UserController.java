@@ -47,6 +47,12 @@ public class UserController {
         return userService.getById(id);
     }
 
+    // 通过id批量查询user(只返回id、昵称和头像)
+    @GetMapping("/batch")
+    public List<User> getUserByIds(@RequestParam("ids") List<Long> ids){
+        return userService.listProfileByIds(ids);
+    }
+
     //通过id查询文章列表
     @GetMapping("/getTopicList/{id}")
     public Result TopicById(@PathVariable("id") Long id){
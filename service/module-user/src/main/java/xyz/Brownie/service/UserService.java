@@ -4,6 +4,8 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import xyz.Brownie.utils.Result;
 import xyz.Brownie.bean.entity.User;
 
+import java.util.List;
+
 
 /**
 * @author 76650
@@ -30,6 +32,9 @@ public interface UserService extends IService<User> {
     //根据id查询部分信息(评论区见)
     Result part(Long id);
 
+    //根据id批量查询昵称和头像
+    List<User> listProfileByIds(List<Long> ids);
+
     Result logout(String account);
 
 
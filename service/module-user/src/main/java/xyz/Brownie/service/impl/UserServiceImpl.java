@@ -5,6 +5,7 @@ import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import org.springframework.transaction.annotation.Transactional;
@@ -14,10 +15,12 @@ import xyz.Brownie.client.TopicClient;
 import xyz.Brownie.utils.*;
 import xyz.Brownie.bean.dto.LVNumDTO;
 import xyz.Brownie.bean.entity.User;
+import xyz.Brownie.constants.Constants;
 import xyz.Brownie.constants.ResponseCode;
 import xyz.Brownie.mapper.UserMapper;
 import xyz.Brownie.service.UserService;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +40,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User>
     private TopicClient topicClient;
     @Autowired
     private RedisCache redisCache;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
     private Map res;
 
     //登录
@@ -210,6 +215,10 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User>
             UpdateWrapper<User> wrapper = new UpdateWrapper<>();
             wrapper.eq("id",user.getId());
             int update = userMapper.update(user, wrapper);
+            if (update > 0) {
+                //通知各模块清掉该用户的资料缓存
+                stringRedisTemplate.convertAndSend(Constants.USER_PROFILE_EVICT_CHANNEL, user.getId().toString());
+            }
         } catch (Exception e) {
             res.put("msg",msg);
             return Result.fail(ResponseCode.Code402,res);
@@ -227,6 +236,17 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User>
         res.put("userinfo",user);
         return Result.suc(ResponseCode.Code200,res);
     }
+
+    @Override
+    public List<User> listProfileByIds(List<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        QueryWrapper<User> wrapper = new QueryWrapper<>();
+        wrapper.select("id","name","avatar").in("id",ids);
+        return userMapper.selectList(wrapper);
+    }
+
     @Override
     public Result logout(String account) {
         res = new HashMap();